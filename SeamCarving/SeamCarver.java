@@ -1,47 +1,124 @@
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import edu.princeton.cs.algs4.Picture;
+import edu.princeton.cs.algs4.StdOut;
 
 
 public class SeamCarver {
     
-    private static final double INFINITY = Double.POSITIVE_INFINITY;
+    // order in which resizeTo removes seams: all vertical ones first, all horizontal ones first,
+    // interleaved so both sides reach their targets together, or whichever seam costs less
+    public enum Order { VERTICAL_FIRST, HORIZONTAL_FIRST, INTERLEAVED, CHEAPEST }
+    
     private static final double ENERGYBORDER = 1000.;
+    private static final int STRIP = 16;   // columns gathered at a time for horizontal seams
+    // default least pixels per parallel task, about 160 us of seam relaxation at 10 ns a pixel, so
+    // the two joins a block of seam search rows pays are a few percent of it
+    private static final int PARALLEL_THRESHOLD = 16384;
          
-    private Picture picture;
+    private int[] rgb;            // packed colour of pixel (x, y) at rgb[y * stride + x]
+    private int stride;           // row length in rgb: the width when the buffer was made, seams
+                                  // are removed in place and inserting them makes a new buffer
     private int width;
     private int height;
-    private double[][] pixelEnergy;
+    private double[] pixelEnergy;   // energy of pixel (x, y) at pixelEnergy[y * stride + x]
+    
+    // seam search scratch, kept between calls and grown when a search needs more: a ring of the
+    // latest rows of least total energies, the step taken into every pixel (-1, 0 or 1), and a
+    // strip of columns for horizontal seams
+    private double[] dist;
+    private byte[] edgeTo;
+    private double[] strip;
+    
+    // only in the working copies that find seams to insert: the least total energy down to every
+    // pixel, kept up to date across removals, and the column each pixel had in the source
+    private double[] total;
+    private int[] origin;
+    
+    private final ForkJoinPool pool;         // null: everything runs on the calling thread
+    private final int parallelThreshold;     // least pixels per parallel task
+    private double seamEnergy;               // total energy of the last seam found
+    private Picture snapshot;                // built by picture(), dropped by any change to the pixels
     
     
     // create a seam carver object based on the given picture
     public SeamCarver(Picture picture) { 
+        this(picture, null, PARALLEL_THRESHOLD);
+    }
+    
+    // energies and seam searches run on the pool
+    public SeamCarver(Picture picture, ForkJoinPool pool) {
+        this(picture, pool, PARALLEL_THRESHOLD);
+    }
+    
+    // as above, splitting work only into tasks of at least threshold pixels: energy in bands of
+    // rows, and the seam search in tiles of a block of rows by a run of columns
+    public SeamCarver(Picture picture, ForkJoinPool pool, int threshold) {
         if (picture == null)
             throw new IllegalArgumentException("The input is not a picture");
-        this.picture = copyPicture(picture);
-        width = this.picture.width();
-        height = this.picture.height();
-        pixelEnergy = new double[width][height];
-        for (int i = 0; i < width; i++)
-            for (int j = 0; j < height; j++)
-                pixelEnergy[i][j] = getEnergy(i, j);
+        if (threshold < 1)
+            throw new IllegalArgumentException("threshold must be positive");
+        this.pool = pool;
+        this.parallelThreshold = threshold;
+        width = picture.width();
+        height = picture.height();
+        stride = width;
+        rgb = new int[width * height];
+        for (int j = 0; j < height; j++)
+            for (int i = 0; i < width; i++)
+                rgb[j * stride + i] = picture.getRGB(i, j);
+        pixelEnergy = new double[width * height];
+        computeEnergy();
+        allocateScratch();
+    }
+    
+    // working copy of source for finding seams to insert, transposed for horizontal ones: energy
+    // is symmetric in x and y, so its vertical seams are the source's horizontal seams, ties included
+    private SeamCarver(SeamCarver source, boolean transpose) {
+        pool = source.pool;
+        parallelThreshold = source.parallelThreshold;
+        width = transpose ? source.height : source.width;
+        height = transpose ? source.width : source.height;
+        stride = width;
+        rgb = new int[width * height];
+        pixelEnergy = new double[width * height];
+        origin = new int[width * height];
+        for (int j = 0; j < height; j++)
+            for (int i = 0; i < width; i++) {
+                int from = transpose ? i * source.stride + j : j * source.stride + i;
+                rgb[j * stride + i] = source.rgb[from];
+                pixelEnergy[j * stride + i] = source.pixelEnergy[from];
+                origin[j * stride + i] = i;
+            }
+        allocateScratch();
+        total = new double[width * height];
+        System.arraycopy(pixelEnergy, 0, total, 0, width);
+        for (int j = 1; j < height; j++)
+            relax(total, (j-1) * stride, total, j * stride, pixelEnergy, j * stride, edgeTo, j * stride, width, 0, width);
     }
     
-    // copy an old picture to a new Picture() object
-    private Picture copyPicture(Picture oldPicture) {
-        int oldWidth = oldPicture.width();
-        int oldHeight = oldPicture.height();
-        Picture newPicture = new Picture(oldWidth, oldHeight);
-        for (int i = 0; i < oldWidth; i++)
-            for (int j = 0; j < oldHeight; j++)
-                newPicture.setRGB(i, j, oldPicture.getRGB(i, j));
-        return newPicture;
+    // search scratch sized to the current picture
+    private void allocateScratch() {
+        dist = new double[2 * Math.max(width, height)];
+        edgeTo = new byte[width * height];
+        strip = new double[Math.min(STRIP, width) * height];
     }
     
-    // current picture
+    // current picture; built from the pixel buffer on the first call after a change and shared by
+    // later calls until the next one, so callers must treat it as read-only (copy it to edit it)
     public Picture picture() {
-        return copyPicture(picture);
+        if (snapshot == null) {
+            Picture picture = new Picture(width, height);
+            for (int j = 0; j < height; j++)
+                for (int i = 0; i < width; i++)
+                    picture.setRGB(i, j, rgb[j * stride + i]);
+            snapshot = picture;
+        }
+        return snapshot;
     }
     
     // width and height of the current picture
@@ -54,110 +131,66 @@ public class SeamCarver {
     // energy of the pixel
     public double energy(int x, int y) {
         checkPosition(x, y);
-        return pixelEnergy[x][y];
+        return pixelEnergy[y * stride + x];
     }
     
     // sequence of indices for vertical seam
     public  int[] findVerticalSeam() {
+        return parallel((long) width * height) ? pool.invoke(ForkJoinTask.adapt(this::verticalSeam)) : verticalSeam();
+    }
+    
+    private int[] verticalSeam() {
+        // row j's least total energies from row j-1's, in blocks of rows when tiled
+        int[] tiles = tiling(width, height - 1);
+        int block = tiles[1], kept = tiles[0] > 1 ? block + 1 : 2;
+        if (dist.length < kept * width) dist = new double[kept * width];
+        System.arraycopy(pixelEnergy, 0, dist, 0, width);
+        for (int from = 1; from < height; from += block)
+            relaxLines(from, Math.min(from + block, height), width, kept, tiles[0],
+                       pixelEnergy, from * stride, stride, stride);
         
-        double[][] totalEnergy = new double[width][height+1]; //    least total energy to this pixel
-        int[][] previousX = new int[width][height];           //    previous pixel's x value
-        double leastEnergy = INFINITY;
-        int leastXOutput = 0;
+        // walk back from the least total energy in the last row
         int[] seam = new int[height];
-        
-        // reset totalEnergy
-        for (int i = 0; i < width; i++)
-            totalEnergy[i][0] = 0.;
-        for (int i = 0; i < width; i++)
-            for (int j = 1; j < height+1; j++) {
-                totalEnergy[i][j] = INFINITY;
-            }
-
-        // do topological order edge relaxation
-        for (int j = 1; j < height; j++) {
-            for (int i = 0; i < width; i++) {
-                if (i-1 >= 0 && totalEnergy[i][j] > totalEnergy[i-1][j-1] + pixelEnergy[i-1][j-1]) {
-                    totalEnergy[i][j] = totalEnergy[i-1][j-1] + pixelEnergy[i-1][j-1];
-                    previousX[i][j] = i-1;
-                }
-                if (totalEnergy[i][j] > totalEnergy[i][j-1] + pixelEnergy[i][j-1]) {
-                    totalEnergy[i][j] = totalEnergy[i][j-1] + pixelEnergy[i][j-1];
-                    previousX[i][j] = i;
-                }
-                if (i+1 < width && totalEnergy[i][j] > totalEnergy[i+1][j-1] + pixelEnergy[i+1][j-1]) {
-                    totalEnergy[i][j] = totalEnergy[i+1][j-1] + pixelEnergy[i+1][j-1];
-                    previousX[i][j] = i+1;
-                }
-            }
+        int last = (height-1) % kept * width;
+        int x = argMin(dist, last, width);
+        seamEnergy = dist[last + x];
+        for (int j = height-1; j >= 0; j--) {
+            seam[j] = x;
+            if (j > 0) x += edgeTo[j * stride + x];
         }
-        
-        // get the last term of seam
-        for (int i = 0; i < width; i++) {
-            totalEnergy[i][height] = totalEnergy[i][height-1] + pixelEnergy[i][height-1];
-            if (leastEnergy > totalEnergy[i][height]) {
-                leastEnergy = totalEnergy[i][height];
-                leastXOutput = i;
-            }
-        }
-        
-        // get the seam
-        int x = leastXOutput;
-        for (int j = height; j > 0; j--) {
-            seam[j-1] = x;
-            x = previousX[x][j-1];
-        }
-        
         return seam;
     }
 
     
     // sequence of indices for horizontal seam
     public  int[] findHorizontalSeam() {
-        double[][] totalEnergy = new double[width+1][height];   //    least total energy to this pixel
-        int[][] previousY = new int[width][height];             //    prevous pixel's y value
-        double leastEnergy = INFINITY;
-        int leastYOutput = 0;
-        int[] seam = new int[width];
-        
-        for (int j = 0; j < height; j++)
-            totalEnergy[0][j] = 0.;
-        for (int j = 0; j < height; j++)
-            for (int i = 1; i < width+1; i++)
-                totalEnergy[i][j] = INFINITY;
-        
-        // do topological order edge relaxation
-        for (int i = 1; i < width; i++)
-            for (int j = 0; j < height; j++) {
-                if (j >= 1 && totalEnergy[i][j] > totalEnergy[i-1][j-1] + pixelEnergy[i-1][j-1]) {
-                    totalEnergy[i][j] = totalEnergy[i-1][j-1] + pixelEnergy[i-1][j-1];
-                    previousY[i][j] = j-1;
-                }
-                if (totalEnergy[i][j] > totalEnergy[i-1][j] + pixelEnergy[i-1][j]) {
-                    totalEnergy[i][j] = totalEnergy[i-1][j] + pixelEnergy[i-1][j];
-                    previousY[i][j] = j;
-                }
-                if (j < height-1 && totalEnergy[i][j] > totalEnergy[i-1][j+1] + pixelEnergy[i-1][j+1]) {
-                    totalEnergy[i][j] = totalEnergy[i-1][j+1] + pixelEnergy[i-1][j+1];
-                    previousY[i][j] = j+1;
-                }
-            }
-        
-        // get the last term of seam
-        for (int j = 0; j < height; j++) {
-            totalEnergy[width][j] = totalEnergy[width-1][j] + pixelEnergy[width-1][j];
-            if (leastEnergy > totalEnergy[width][j]) {
-                leastEnergy = totalEnergy[width][j];
-                leastYOutput = j;
-            }
+        return parallel((long) width * height) ? pool.invoke(ForkJoinTask.adapt(this::horizontalSeam)) : horizontalSeam();
+    }
+    
+    private int[] horizontalSeam() {
+        // the vertical engine run down columns: blocks of columns are first gathered from the
+        // energy rows in order, so the relaxation reads each column contiguously
+        int[] tiles = tiling(height, width - 1);
+        int block = tiles[0] > 1 ? tiles[1] : STRIP, kept = tiles[0] > 1 ? block + 1 : 2;
+        if (dist.length < kept * height) dist = new double[kept * height];
+        if (strip.length < Math.min(block, width) * height) strip = new double[Math.min(block, width) * height];
+        for (int from = 0; from < width; from += block) {
+            final int first = from, last = Math.min(from + block, width);
+            forChunks(height, last - first, (lo, hi) -> gather(first, last, lo, hi));
+            if (first == 0) System.arraycopy(strip, 0, dist, 0, height);
+            int next = Math.max(first, 1);
+            if (next < last)
+                relaxLines(next, last, height, kept, tiles[0], strip, (next - first) * height, height, height);
         }
         
-        // get the seam
-        int y = leastYOutput;
-        for (int i = width; i > 0; i--) {
-            seam[i-1] = y;
-            y = previousY[i-1][y];
-        } 
+        int[] seam = new int[width];
+        int lastColumn = (width-1) % kept * height;
+        int y = argMin(dist, lastColumn, height);
+        seamEnergy = dist[lastColumn + y];
+        for (int i = width-1; i >= 0; i--) {
+            seam[i] = y;
+            if (i > 0) y += edgeTo[i * height + y];
+        }
         return seam;
     }
     
@@ -174,22 +207,74 @@ public class SeamCarver {
                     throw new IllegalArgumentException("seam is not a suquential least energy seam");
             }
         }
-        
-        // get new picture
-        Picture newPicture = new Picture(width-1, height);
+        carveVertical(seam);
+    }
+    
+    // removeVerticalSeam on a seam already known to be valid
+    private void carveVertical(int[] seam) {
+        snapshot = null;
+        // shift every row left over its seam pixel, colours and energies alike
         for (int j = 0; j < height; j++) {
-            for (int i = 0; i < width-1; i++) {
-                if (i < seam[j]) newPicture.setRGB(i, j, picture.getRGB(i, j));
-                else newPicture.setRGB(i, j, picture.getRGB(i+1, j));
+            int row = j * stride;
+            System.arraycopy(rgb, row + seam[j] + 1, rgb, row + seam[j], width - 1 - seam[j]);
+            System.arraycopy(pixelEnergy, row + seam[j] + 1, pixelEnergy, row + seam[j], width - 1 - seam[j]);
+            if (total != null) {
+                System.arraycopy(total, row + seam[j] + 1, total, row + seam[j], width - 1 - seam[j]);
+                System.arraycopy(edgeTo, row + seam[j] + 1, edgeTo, row + seam[j], width - 1 - seam[j]);
+                System.arraycopy(origin, row + seam[j] + 1, origin, row + seam[j], width - 1 - seam[j]);
             }
         }
-        picture = newPicture;
         width = width -1;
         
-        // update energy matrix
-        for (int j = 0; j < height; j++)
-            for (int i = 0; i < width; i++)
-                pixelEnergy[i][j] = getEnergy(i, j);
+        // only pixels next to the seam changed neighbours: in row j, the columns between the seam
+        // positions of rows j-1, j and j+1, widened by one to the left
+        for (int j = 0; j < height; j++) {
+            int from = Math.max(minOf3(seam, j) - 1, 0);
+            int to = Math.min(maxOf3(seam, j), width - 1);
+            for (int i = from; i <= to; i++)
+                pixelEnergy[j * stride + i] = getEnergy(i, j);
+        }
+        if (total != null) updateTotals(seam);
+    }
+    
+    // after a removal in a working copy, relax again only where a total can have changed: in row j
+    // the band whose energies or upper neighbours changed, and one column either side of the totals
+    // that actually changed in row j-1; everywhere else the shifted totals and steps still hold
+    private void updateTotals(int[] seam) {
+        int changedLo = 0, changedHi = -1;   // totals of the previous row that changed, if any
+        for (int j = 0; j < height; j++) {
+            int lo = Math.max(minOf3(seam, j) - 1, 0);
+            int hi = Math.min(maxOf3(seam, j), width - 1);
+            if (changedLo <= changedHi) {
+                lo = Math.min(lo, Math.max(changedLo - 1, 0));
+                hi = Math.max(hi, Math.min(changedHi + 1, width - 1));
+            }
+            int row = j * stride;
+            System.arraycopy(total, row + lo, dist, 0, hi - lo + 1);
+            if (j == 0) System.arraycopy(pixelEnergy, lo, total, lo, hi - lo + 1);
+            else relax(total, row - stride, total, row, pixelEnergy, row, edgeTo, row, width, lo, hi + 1);
+            changedLo = 0;
+            changedHi = -1;
+            for (int i = lo; i <= hi; i++)
+                if (total[row + i] != dist[i - lo]) {
+                    if (changedLo > changedHi) changedLo = i;
+                    changedHi = i;
+                }
+        }
+    }
+    
+    // in a working copy, the least energy vertical seam read off the totals
+    private int[] cheapestSeam() {
+        int last = (height - 1) * stride;
+        int x = 0;
+        for (int i = 1; i < width; i++)
+            if (total[last + i] < total[last + x]) x = i;
+        int[] seam = new int[height];
+        for (int j = height-1; j >= 0; j--) {
+            seam[j] = x;
+            if (j > 0) x += edgeTo[j * stride + x];
+        }
+        return seam;
     }
 
     
@@ -206,26 +291,164 @@ public class SeamCarver {
                     throw new IllegalArgumentException("seam is not a suquential least energy seam");
             }
         }
-            
-        // get new picture
-        Picture newPicture = new Picture(width, height-1);
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height-1; j++) {
-                if (j < seam[i]) newPicture.setRGB(i, j, picture.getRGB(i, j));
-                else newPicture.setRGB(i, j, picture.getRGB(i, j+1));
-            }
+        carveHorizontal(seam);
+    }
+    
+    private void carveHorizontal(int[] seam) {
+        snapshot = null;
+        // shift every column up over its seam pixel, colours and energies alike; row by row, so
+        // the buffers are read in order rather than one strided column at a time
+        for (int j = 0; j < height-1; j++) {
+            int row = j * stride;
+            for (int i = 0; i < width; i++)
+                if (seam[i] <= j) {
+                    rgb[row + i] = rgb[row + stride + i];
+                    pixelEnergy[row + i] = pixelEnergy[row + stride + i];
+                }
         }
-        picture = newPicture;
         height = height -1;
 
-        // update energy matrix
-        for (int j = 0; j < height; j++)
-            for (int i = 0; i < width; i++)
-                pixelEnergy[i][j] = getEnergy(i, j);
+        // recompute the band around the seam, as for vertical seams with rows and columns swapped
+        for (int i = 0; i < width; i++) {
+            int from = Math.max(minOf3(seam, i) - 1, 0);
+            int to = Math.min(maxOf3(seam, i), height - 1);
+            for (int j = from; j <= to; j++)
+                pixelEnergy[j * stride + i] = getEnergy(i, j);
+        }
+    }
+    
+    
+    
+    // widen the picture by k columns: the k seams that k removals in a row would take are found on
+    // a working copy, then each is doubled here, the new pixel the average of the seam pixel and
+    // its right neighbour; more than width seams are inserted in rounds of at most width
+    public void insertVerticalSeams(int k) {
+        insertSeams(k, true);
+    }
+    
+    // heighten the picture by k rows, as above with the new pixel below the seam pixel
+    public void insertHorizontalSeams(int k) {
+        insertSeams(k, false);
+    }
+    
+    private void insertSeams(int k, boolean vertical) {
+        if (k < 0)
+            throw new IllegalArgumentException("k is negative");
+        while (k > 0) {
+            int count = Math.min(k, vertical ? width : height);
+            boolean[] marked = seamsToInsert(count, vertical);
+            if (vertical) insertVertical(marked, count);
+            else insertHorizontal(marked, count);
+            k -= count;
+        }
+    }
+    
+    // marked[y * width + x] when pixel (x, y) is on one of the first count seams that repeated
+    // removal would take; the working copy keeps its totals up to date rather than searching anew
+    private boolean[] seamsToInsert(int count, boolean vertical) {
+        SeamCarver work = new SeamCarver(this, !vertical);
+        boolean[] marked = new boolean[width * height];
+        for (int s = 0; s < count; s++) {
+            int[] seam = work.cheapestSeam();
+            for (int r = 0; r < seam.length; r++) {
+                int o = work.origin[r * work.stride + seam[r]];
+                marked[vertical ? r * width + o : o * width + r] = true;
+            }
+            if (s < count - 1) work.carveVertical(seam);
+        }
+        return marked;
+    }
+    
+    // every row gets count new pixels, one after each marked pixel
+    private void insertVertical(boolean[] marked, int count) {
+        int grownWidth = width + count;
+        int[] grown = new int[grownWidth * height];
+        for (int j = 0; j < height; j++) {
+            int row = j * stride, out = j * grownWidth;
+            for (int i = 0; i < width; i++) {
+                grown[out++] = rgb[row + i];
+                if (marked[j * width + i])
+                    grown[out++] = average(rgb[row + i], rgb[row + (i + 1 < width ? i + 1 : Math.max(i - 1, 0))]);
+            }
+        }
+        grow(grown, grownWidth, height);
+    }
+    
+    // every column gets count new pixels, one below each marked pixel; filled row by row, with the
+    // next free row of each column kept in next
+    private void insertHorizontal(boolean[] marked, int count) {
+        int grownHeight = height + count;
+        int[] grown = new int[width * grownHeight];
+        int[] next = new int[width];
+        for (int j = 0; j < height; j++) {
+            int row = j * stride;
+            int neighbour = (j + 1 < height ? j + 1 : Math.max(j - 1, 0)) * stride;
+            for (int i = 0; i < width; i++) {
+                grown[next[i]++ * width + i] = rgb[row + i];
+                if (marked[j * width + i])
+                    grown[next[i]++ * width + i] = average(rgb[row + i], rgb[neighbour + i]);
+            }
+        }
+        grow(grown, width, grownHeight);
     }
     
+    // take over a larger pixel buffer: energies are recomputed in full, once per round of seams
+    private void grow(int[] pixels, int w, int h) {
+        snapshot = null;
+        rgb = pixels;
+        width = w;
+        height = h;
+        stride = w;
+        pixelEnergy = new double[w * h];
+        computeEnergy();
+        allocateScratch();
+    }
     
     
+    // carve or insert seams until the picture is targetWidth x targetHeight, removals interleaving
+    // vertical and horizontal seams, and return the result
+    public Picture resizeTo(int targetWidth, int targetHeight) {
+        return resizeTo(targetWidth, targetHeight, Order.INTERLEAVED);
+    }
+    
+    // the same with the given order for the removals; a side that grows gets its seams inserted
+    // after all removals, columns before rows; pixels stay in this carver's buffers throughout and
+    // the one Picture is built at the end
+    public Picture resizeTo(int targetWidth, int targetHeight, Order order) {
+        if (order == null)
+            throw new IllegalArgumentException("order is null");
+        if (targetWidth < 1 || targetHeight < 1)
+            throw new IllegalArgumentException("target " + targetWidth + " x " + targetHeight + " is below 1 x 1");
+        int insertWidth = Math.max(targetWidth - width, 0);
+        int insertHeight = Math.max(targetHeight - height, 0);
+        targetWidth = Math.min(targetWidth, width);
+        targetHeight = Math.min(targetHeight, height);
+        int verticals = width - targetWidth;
+        int horizontals = height - targetHeight;
+        while (width > targetWidth || height > targetHeight) {
+            boolean vertical;
+            if (width == targetWidth) vertical = false;
+            else if (height == targetHeight) vertical = true;
+            else if (order == Order.VERTICAL_FIRST) vertical = true;
+            else if (order == Order.HORIZONTAL_FIRST) vertical = false;
+            else if (order == Order.INTERLEAVED)   // the side with more of its seams left goes next
+                vertical = (long) (width - targetWidth) * horizontals >= (long) (height - targetHeight) * verticals;
+            else {
+                int[] seam = findVerticalSeam();
+                double verticalEnergy = seamEnergy;
+                int[] other = findHorizontalSeam();
+                if (verticalEnergy <= seamEnergy) carveVertical(seam);
+                else carveHorizontal(other);
+                continue;
+            }
+            if (vertical) carveVertical(findVerticalSeam());
+            else carveHorizontal(findHorizontalSeam());
+        }
+        insertVerticalSeams(insertWidth);
+        insertHorizontalSeams(insertHeight);
+        return picture();
+    }
+    
     /* *************************** Helper Functions *************************** */
     // check if x and y are in the range
     private void checkPosition(int x, int y) {
@@ -233,135 +456,358 @@ public class SeamCarver {
             throw new IllegalArgumentException("x or y not in the range");
     }
     
-    // energy of pixel at column x and row y
-    private double getEnergy(int x, int y) {
-        checkPosition(x, y);
-        double energy = 0.;
-        if (x == 0 || x == width-1 || y == 0 || y == height-1)
-            energy = ENERGYBORDER;
-        else
-             energy = Math.sqrt(getDeltaX(x, y) + getDeltaY(x, y));
-        return energy;
+    // columns first .. last-1 of rows lo .. hi-1 into the strip, one column after another
+    private void gather(int first, int last, int lo, int hi) {
+        for (int j = lo; j < hi; j++) {
+            int row = j * stride;
+            for (int i = first; i < last; i++)
+                strip[(i - first) * height + j] = pixelEnergy[row + i];
+        }
     }
     
-    private double getDeltaX(int x, int y) {
-        checkPosition(x, y);
-        if (x == 0 && x == width-1)
-            throw new IllegalArgumentException("pixel is the border");
-        double deltaX = 0.;
-        List<Integer> rgbA = getRgbInt(x-1, y);
-        List<Integer> rgbB = getRgbInt(x+1, y);
-        for (int i = 0; i < 3; i++)
-            deltaX += Math.pow(rgbA.get(i) - rgbB.get(i), 2);
-        return deltaX;
+    // every energy, in bands of rows on the pool when the picture is large enough
+    private void computeEnergy() {
+        Runnable energies = () -> forChunks(height, width, this::computeEnergy);
+        if (parallel((long) width * height)) pool.invoke(ForkJoinTask.adapt(energies));
+        else energies.run();
     }
     
-    private double getDeltaY(int x, int y) {
-        checkPosition(x, y);
-        if (y == 0 && y == height-1)
-            throw new IllegalArgumentException("pixel is the border");
-        
-        double deltaY = 0.;
-        List<Integer> rgbA = getRgbInt(x, y-1);
-        List<Integer> rgbB = getRgbInt(x, y+1);
-        for (int i = 0; i < 3; i++)
-            deltaY += Math.pow(rgbA.get(i) - rgbB.get(i), 2);
-        return deltaY;
+    // energies of rows lo .. hi-1
+    private void computeEnergy(int lo, int hi) {
+        for (int j = lo; j < hi; j++)
+            for (int i = 0; i < width; i++)
+                pixelEnergy[j * stride + i] = getEnergy(i, j);
     }
-
-    // get rgb number of the pixel
-    private List<Integer> getRgbInt(int x, int y) {
-        checkPosition(x, y);
-        int colorInt = picture.getRGB(x, y);
-        int redInt = (colorInt >> 16) & 0xFF;
-        int greenInt = (colorInt >> 8) & 0xFF;
-        int blueInt = (colorInt >> 0) & 0xFF;
-        
-        List<Integer> rgbInt = new ArrayList<>();
-        rgbInt.add(redInt);
-        rgbInt.add(greenInt);
-        rgbInt.add(blueInt);
-        return rgbInt;
+    
+    // one step of the seam search along a line of n pixels, for k in lo .. hi-1: dist[dFrom + k]
+    // is energy[eFrom + k] plus the least of prev[pFrom + k-1 .. k+1], and back[bFrom + k] the step
+    // to it; ties go to the lowest index, as the original per-pixel relaxation resolved them
+    private static void relax(double[] prev, int pFrom, double[] dist, int dFrom, double[] energy, int eFrom,
+                              byte[] back, int bFrom, int n, int lo, int hi) {
+        if (n == 1) {
+            dist[dFrom] = prev[pFrom] + energy[eFrom];
+            back[bFrom] = 0;
+            return;
+        }
+        byte step;
+        if (lo == 0) {
+            step = prev[pFrom + 1] < prev[pFrom] ? (byte) 1 : 0;
+            dist[dFrom] = prev[pFrom + step] + energy[eFrom];
+            back[bFrom] = step;
+        }
+        for (int k = Math.max(lo, 1), end = Math.min(hi, n-1); k < end; k++) {
+            int p = pFrom + k;
+            double best = prev[p];
+            step = 0;
+            if (prev[p-1] <= best) {
+                best = prev[p-1];
+                step = -1;
+            }
+            if (prev[p+1] < best) {
+                best = prev[p+1];
+                step = 1;
+            }
+            dist[dFrom + k] = best + energy[eFrom + k];
+            back[bFrom + k] = step;
+        }
+        if (hi == n) {
+            int p = pFrom + n-1;
+            step = prev[p-1] <= prev[p] ? (byte) -1 : 0;
+            dist[dFrom + n-1] = prev[p + step] + energy[eFrom + n-1];
+            back[bFrom + n-1] = step;
+        }
     }
-
-    public static void main(String[] args) {
+    
+    // seam search lines from .. to-1 of n pixels, each relaxed from the line before: line l's
+    // totals go to dist at (l % kept) * n, its energies are read from energy at eFrom + (l-from) *
+    // eStride and its steps written to edgeTo at l * bStride. Split into chunks, a block is tiled:
+    // each chunk first relaxes a trapezoid, one pixel narrower per line on each side it shares
+    // with another chunk, then the triangles left between the chunks are filled, so the whole
+    // block pays two joins however many lines it has
+    private void relaxLines(int from, int to, int n, int kept, int chunks,
+                            double[] energy, int eFrom, int eStride, int bStride) {
+        Chunk trapezoid = (lo, hi) -> {
+            for (int l = from; l < to; l++) {
+                int a = lo == 0 ? 0 : lo + l-from+1, z = hi == n ? n : hi - (l-from+1);
+                if (a < z)
+                    relax(dist, (l-1) % kept * n, dist, l % kept * n, energy, eFrom + (l-from) * eStride,
+                          edgeTo, l * bStride, n, a, z);
+            }
+        };
+        if (chunks == 1) {
+            trapezoid.run(0, n);
+            return;
+        }
+        Chunk triangle = (lo, hi) -> {
+            int mid = (lo + hi) >>> 1;
+            for (int l = from; l < to; l++)
+                relax(dist, (l-1) % kept * n, dist, l % kept * n, energy, eFrom + (l-from) * eStride,
+                      edgeTo, l * bStride, n, mid - (l-from+1), mid + (l-from+1));
+        };
+        ChunkTask[] tasks = new ChunkTask[chunks];
+        for (int c = 0; c < chunks; c++)
+            tasks[c] = new ChunkTask(trapezoid, (int) ((long) n * c / chunks), (int) ((long) n * (c+1) / chunks));
+        ForkJoinTask.invokeAll(tasks);
+        ChunkTask[] gaps = new ChunkTask[chunks - 1];
+        for (int c = 1; c < chunks; c++) {
+            int border = (int) ((long) n * c / chunks);
+            gaps[c-1] = new ChunkTask(triangle, border - (to - from), border + (to - from));
+        }
+        ForkJoinTask.invokeAll(gaps);
     }
-
-}
-
-
-
-
-
-/*
- * The following tries to reduce the time of using getEnergy function. However it falied. Leave it for later.
- * 
-// min in an int array, end is excluded
-private int minInArray(int[] array, int begin, int end) {
-    if (begin > end)
-        throw new IllegalArgumentException("Begin index is larger than end index");
-    int min = array[begin];
-    for (int i = begin + 1; i < end; i++)
-        if (min > array[i]) {
-            min = array[i];
-        }
-    return min;
-}
-// max in an int array, end is excluded
-private int maxInArray(int[] array, int begin, int end) {
-    if (begin > end)
-        throw new IllegalArgumentException("Begin index is larger than end index");
-    int max = array[begin];
-    for (int i = begin + 1; i < end; i++)
-        if (max < array[i]) {
-            max = array[i];
-        }
-    return max;
-}
-
-// update energy in layer y-1 when delete (x, y)
-private void updateEnergyVertical(int[] seam, int y) {
-    if (height != 1 && height != 2) {
-        int xmin = 0;
-        int xmax = 0;
+    
+    /* *************************** Parallel Helpers *************************** */
+    // worth handing to the pool: at least two tasks of parallelThreshold pixels
+    private boolean parallel(long pixels) {
+        return pool != null && pixels >= 2L * parallelThreshold;
+    }
+    
+    // body over indices 0 .. n-1 of unit pixels each, split into up to one chunk per worker with
+    // at least parallelThreshold pixels per chunk; runs whole here unless called from inside the pool
+    private void forChunks(int n, long unit, Chunk body) {
+        int chunks = 1;
+        if (pool != null && ForkJoinTask.getPool() == pool)
+            chunks = (int) Math.min(Math.min(pool.getParallelism(), n), n * unit / parallelThreshold);
+        if (chunks <= 1) {
+            body.run(0, n);
+            return;
+        }
+        ChunkTask[] tasks = new ChunkTask[chunks];
+        for (int c = 0; c < chunks; c++)
+            tasks[c] = new ChunkTask(body, (int) ((long) n * c / chunks), (int) ((long) n * (c+1) / chunks));
+        ForkJoinTask.invokeAll(tasks);
+    }
+    
+    // {chunks, lines per block} for a seam search of count lines of n pixels: the most chunks, up
+    // to one per worker, for which a block's tile holds parallelThreshold pixels and is at least
+    // twice as wide as the block is long, so the triangles between chunks never meet; {1, count}
+    // when there is no such tiling or the search is not running in the pool
+    private int[] tiling(int n, int count) {
+        if (pool != null && ForkJoinTask.getPool() == pool)
+            for (int chunks = Math.min(pool.getParallelism(), n); chunks > 1; chunks--) {
+                int run = n / chunks;
+                long lines = (parallelThreshold + run - 1L) / run;
+                if (2 * lines <= run && lines <= count)
+                    return new int[] { chunks, (int) lines };
+            }
+        return new int[] { 1, Math.max(count, 1) };
+    }
+    
+    private interface Chunk {
+        void run(int lo, int hi);
+    }
+    
+    private static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Chunk body;
+        private final int lo, hi;
         
-        if (y > 1 && y < height-1) xmin = minInArray(seam, y-2, y+1);
-        else if (y == height-1) xmin = minInArray(seam, y-2, y);
-        if (xmin > 0) xmin--;
+        ChunkTask(Chunk body, int lo, int hi) {
+            this.body = body;
+            this.lo = lo;
+            this.hi = hi;
+        }
         
-        if (y > 1 && y < height-1) xmax = maxInArray(seam, y-2, y+1);
-        else if (y == height-1) xmax = maxInArray(seam, y-2, y);
-
-        for (int i = xmin; i < width; i++)
-            if (i < xmax) pixelEnergy[i][y-1] = getEnergy(i, y-1);
-            else pixelEnergy[i][y-1] = pixelEnergy[i+1][y-1];
+        @Override
+        protected void compute() {
+            body.run(lo, hi);
+        }
+    }
+    
+    // index k of the first least value a[from + k], k in 0 .. n-1
+    private static int argMin(double[] a, int from, int n) {
+        int min = 0;
+        for (int k = 1; k < n; k++)
+            if (a[from + k] < a[from + min]) min = k;
+        return min;
+    }
+    
+    // least and greatest of seam[k-1], seam[k] and seam[k+1], skipping ends past the seam
+    private static int minOf3(int[] seam, int k) {
+        int min = seam[k];
+        if (k > 0) min = Math.min(min, seam[k-1]);
+        if (k < seam.length - 1) min = Math.min(min, seam[k+1]);
+        return min;
+    }
+    
+    private static int maxOf3(int[] seam, int k) {
+        int max = seam[k];
+        if (k > 0) max = Math.max(max, seam[k-1]);
+        if (k < seam.length - 1) max = Math.max(max, seam[k+1]);
+        return max;
+    }
+    
+    // energy of pixel at column x and row y, which must be in range; no allocation, integer
+    // gradients, and one sqrt per interior pixel
+    private double getEnergy(int x, int y) {
+        if (x == 0 || x == width-1 || y == 0 || y == height-1)
+            return ENERGYBORDER;
+        int p = y * stride + x;
+        return Math.sqrt(gradient(rgb[p-1], rgb[p+1]) + gradient(rgb[p-stride], rgb[p+stride]));
+    }
+    
+    // per channel average of two packed colours, rounded down: the shared bits plus half the
+    // differing ones, masked so no channel's low bit shifts into the channel below
+    private static int average(int a, int b) {
+        return (a & b) + (((a ^ b) & 0xFEFEFEFE) >>> 1);
+    }
+    
+    // squared distance between two packed colours, summed over red, green and blue
+    private static int gradient(int a, int b) {
+        int red = ((a >> 16) & 0xFF) - ((b >> 16) & 0xFF);
+        int green = ((a >> 8) & 0xFF) - ((b >> 8) & 0xFF);
+        int blue = (a & 0xFF) - (b & 0xFF);
+        return red * red + green * green + blue * blue;
     }
-}
 
-// update energy in layer x-1 when delete (x, y)
-private void updateEnergyHorizontal(int[] seam, int x) {
-    // j might be height here
-    if (width != 1 && width != 2) {
-        int ymin = 0;
-        int ymax = 0;
-        
-        if (x > 1 && x < width-1) ymin = minInArray(seam, x-2, x+1);
-        else if (x == width-1) ymin = minInArray(seam, x-2, x);
-        if (ymin > 0) ymin--;
+    // checks the incrementally updated energies against a full recompute and the seams found for
+    // insertion against repeated removal, then times energy, seams and a 20% enlargement on a
+    // generated picture: java SeamCarver [width height [seams]]
+    // or times them for 1 .. N workers at 1080p, 4K and 8K, with the default or the given task
+    // threshold: java -Xmx2g SeamCarver -scaling [rounds [threshold]]
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("-scaling")) {
+            scaling(args.length > 1 ? Integer.parseInt(args[1]) : 3,
+                    args.length > 2 ? Integer.parseInt(args[2]) : PARALLEL_THRESHOLD);
+            return;
+        }
+        int w = args.length > 1 ? Integer.parseInt(args[0]) : 1920;
+        int h = args.length > 1 ? Integer.parseInt(args[1]) : 1080;
+        int seams = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        checkIncrementalEnergy(testPicture(97, 61, 2), new Random(3));
+        checkSeamInsertion(testPicture(97, 61, 4), 40);
+        Picture picture = testPicture(w, h, 1);
         
-        if (x > 1 && x < width-1) ymax = maxInArray(seam, x-2, x+1);
-        else if (x == width-1) ymax = maxInArray(seam, x-2, x);
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            SeamCarver carver = new SeamCarver(picture);
+            double buildMs = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            for (int s = 0; s < seams; s++) {
+                carver.removeVerticalSeam(carver.findVerticalSeam());
+                carver.removeHorizontalSeam(carver.findHorizontalSeam());
+            }
+            double seamMs = (System.nanoTime() - start) / 1e6 / (2 * seams);
+            StdOut.printf("%d x %d: constructor %.1f ms (%.1f ns/pixel), find + remove %.1f ms per seam\n",
+                          w, h, buildMs, buildMs * 1e6 / ((double) w * h), seamMs);
+        }
+        SeamCarver carver = new SeamCarver(picture);
+        long start = System.nanoTime();
+        carver.insertVerticalSeams(w / 5);
+        double widenMs = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        carver.insertHorizontalSeams(h / 5);
+        StdOut.printf("%d x %d: 20%% wider %.0f ms, then 20%% taller %.0f ms\n",
+                      w, h, widenMs, (System.nanoTime() - start) / 1e6);
+    }
+    
+    // energy and seam search times per worker count, best of rounds; speedups against one worker
+    private static void scaling(int rounds, int threshold) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int[][] sizes = { { 1920, 1080 }, { 3840, 2160 }, { 7680, 4320 } };
+        String[] names = { "1080p", "4K", "8K" };
+        StdOut.printf("%d cores available, threshold %d pixels\n", cores, threshold);
+        for (int s = 0; s < sizes.length; s++) {
+            Picture picture = testPicture(sizes[s][0], sizes[s][1], 1);
+            double[] base = null;
+            for (int workers = 1; workers <= cores; workers = workers < cores ? Math.min(2 * workers, cores) : cores + 1) {
+                ForkJoinPool pool = new ForkJoinPool(workers);
+                SeamCarver carver = new SeamCarver(picture, pool, threshold);
+                double[] best = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+                for (int round = 0; round < rounds; round++) {
+                    long start = System.nanoTime();
+                    carver.computeEnergy();
+                    best[0] = Math.min(best[0], (System.nanoTime() - start) / 1e6);
+                    start = System.nanoTime();
+                    carver.findVerticalSeam();
+                    best[1] = Math.min(best[1], (System.nanoTime() - start) / 1e6);
+                    start = System.nanoTime();
+                    carver.findHorizontalSeam();
+                    best[2] = Math.min(best[2], (System.nanoTime() - start) / 1e6);
+                }
+                pool.shutdown();
+                if (base == null) base = best;
+                StdOut.printf("%-5s %2d workers: energy %7.1f ms (%.1fx), vertical seam %7.1f ms (%.1fx), "
+                              + "horizontal seam %7.1f ms (%.1fx)\n", names[s], workers,
+                              best[0], base[0] / best[0], best[1], base[1] / best[1], best[2], base[2] / best[2]);
+            }
+        }
+    }
+    
+    // remove seams in random directions down to 1 x 1; after every removal each energy must equal
+    // the one a new SeamCarver computes from scratch on the current picture
+    private static void checkIncrementalEnergy(Picture picture, Random random) {
+        SeamCarver carver = new SeamCarver(picture);
+        while (carver.width() > 1 || carver.height() > 1) {
+            if (carver.height() == 1 || carver.width() > 1 && random.nextBoolean())
+                carver.removeVerticalSeam(carver.findVerticalSeam());
+            else
+                carver.removeHorizontalSeam(carver.findHorizontalSeam());
+            SeamCarver fresh = new SeamCarver(carver.picture());
+            for (int j = 0; j < carver.height(); j++)
+                for (int i = 0; i < carver.width(); i++)
+                    if (carver.energy(i, j) != fresh.energy(i, j))
+                        throw new IllegalStateException("energy of (" + i + ", " + j + ") differs from a full recompute at "
+                                                        + carver.width() + " x " + carver.height());
+        }
+        StdOut.println("incremental energy matches a full recompute");
+    }
+    
+    // the seams marked for insertion must be the ones repeated find and remove calls take, mapped
+    // back to the source; the enlarged picture must keep every source pixel in order
+    private static void checkSeamInsertion(Picture picture, int count) {
+        int w = picture.width(), h = picture.height();
+        for (boolean vertical : new boolean[] { true, false }) {
+            boolean[] marked = new SeamCarver(picture).seamsToInsert(count, vertical);
+            SeamCarver plain = new SeamCarver(picture);
+            int lines = vertical ? h : w;
+            int[][] source = new int[lines][];   // source column (row) of each pixel left in a row (column)
+            for (int r = 0; r < lines; r++) {
+                source[r] = new int[vertical ? w : h];
+                for (int k = 0; k < source[r].length; k++) source[r][k] = k;
+            }
+            boolean[] expected = new boolean[w * h];
+            for (int s = 0; s < count; s++) {
+                int[] seam = vertical ? plain.findVerticalSeam() : plain.findHorizontalSeam();
+                for (int r = 0; r < lines; r++) {
+                    int o = source[r][seam[r]];
+                    expected[vertical ? r * w + o : o * w + r] = true;
+                    System.arraycopy(source[r], seam[r] + 1, source[r], seam[r], source[r].length - 1 - seam[r]);
+                }
+                if (s == count - 1) break;
+                if (vertical) plain.removeVerticalSeam(seam);
+                else plain.removeHorizontalSeam(seam);
+            }
+            if (!Arrays.equals(marked, expected))
+                throw new IllegalStateException((vertical ? "vertical" : "horizontal") + " seams to insert differ");
+        }
         
-        for (int j = ymin; j < ymax; j++)
-            if (j < ymax) pixelEnergy[x-1][j] = getEnergy(x-1, j);
-            else pixelEnergy[x-1][j] = pixelEnergy[x-1][j+1];
+        // two rounds of vertical seams, one of horizontal; row 0 keeps the source row's pixels in order
+        SeamCarver carver = new SeamCarver(picture);
+        carver.insertVerticalSeams(w + count);
+        carver.insertHorizontalSeams(count);
+        if (carver.width() != 2 * w + count || carver.height() != h + count)
+            throw new IllegalStateException("enlarged to " + carver.width() + " x " + carver.height());
+        int k = 0;
+        for (int i = 0; i < carver.width() && k < w; i++)
+            if (carver.picture().getRGB(i, 0) == picture.getRGB(k, 0)) k++;
+        if (k < w)
+            throw new IllegalStateException("source pixels lost from row 0");
+        StdOut.println("seams to insert match repeated seam removal");
+    }
+    
+    // smooth colour gradients with noise and a few flat blocks, so seams have structure to follow
+    static Picture testPicture(int w, int h, long seed) {
+        Random random = new Random(seed);
+        Picture picture = new Picture(w, h);
+        for (int j = 0; j < h; j++)
+            for (int i = 0; i < w; i++) {
+                int red = (255 * i / w + random.nextInt(24)) & 0xFF;
+                int green = (255 * j / h + random.nextInt(24)) & 0xFF;
+                int blue = ((i / 64 + j / 64) % 3 == 0) ? 40 : (128 + random.nextInt(64));
+                picture.setRGB(i, j, (red << 16) | (green << 8) | blue);
+            }
+        return picture;
     }
-}
-*/
-
-
-
-
-
-
 
+}
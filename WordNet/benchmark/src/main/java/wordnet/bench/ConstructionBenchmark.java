@@ -0,0 +1,41 @@
+package wordnet.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// new WordNet(synsets, hypernyms): parse, dictionary, graph and rooted-DAG check
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class ConstructionBenchmark {
+    @Param({"1000", "10000", "50000", "full"})
+    public String size;
+
+    private String synsets;
+    private String hypernyms;
+
+    @Setup
+    public void setUp() {
+        synsets = Data.synsets(size);
+        hypernyms = Data.hypernyms(size);
+    }
+
+    @Benchmark
+    public Object construct() {
+        return Api.wordNet(synsets, hypernyms);
+    }
+}
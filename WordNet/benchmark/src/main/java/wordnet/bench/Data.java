@@ -0,0 +1,77 @@
+package wordnet.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+// Input files and seeded query generators shared by the benchmarks. The same seed gives the same
+// queries on every run and machine, so results from different builds can be compared.
+final class Data {
+    private Data() { }
+
+    // the synsets/hypernyms pair for a size parameter: "1000", "10000", "50000", ... or "full"
+    static String synsets(String size) {
+        return file(size.equals("full") ? "synsets.txt" : "synsets" + size + "-subgraph.txt");
+    }
+
+    static String hypernyms(String size) {
+        return file(size.equals("full") ? "hypernyms.txt" : "hypernyms" + size + "-subgraph.txt");
+    }
+
+    // a data file from $WORDNET_DATA, else ../wordnet; the environment reaches JMH's forked JVMs
+    static String file(String name) {
+        String dir = System.getenv("WORDNET_DATA");
+        File file = new File(dir != null ? dir : "../wordnet", name);
+        if (!file.isFile())
+            throw new IllegalArgumentException(file + " not found; copy it from the assignment's wordnet.zip");
+        return file.getPath();
+    }
+
+    // distinct nouns of a synsets file that belong to at least minIds synsets, sorted
+    static String[] nouns(String synsetsFile, int minIds) {
+        TreeMap<String, Integer> ids = new TreeMap<>();
+        for (String line: lines(synsetsFile))
+            for (String noun: line.split(",")[1].split(" "))
+                ids.merge(noun, 1, Integer::sum);
+        List<String> nouns = new ArrayList<>();
+        for (String noun: ids.keySet())
+            if (ids.get(noun) >= minIds) nouns.add(noun);
+        if (nouns.size() < 2)
+            throw new IllegalArgumentException(synsetsFile + " has fewer than 2 nouns with " + minIds + "+ synsets");
+        return nouns.toArray(new String[0]);
+    }
+
+    // n random noun pairs drawn uniformly from nouns; pairs[0] and pairs[1] hold the two sides
+    static String[][] pairs(String[] nouns, long seed, int n) {
+        Random random = new Random(seed);
+        String[][] pairs = new String[2][n];
+        for (int i = 0; i < n; i++) {
+            pairs[0][i] = nouns[random.nextInt(nouns.length)];
+            pairs[1][i] = nouns[random.nextInt(nouns.length)];
+        }
+        return pairs;
+    }
+
+    // whitespace-separated words of a file, like In.readAllStrings()
+    static String[] words(String file) {
+        List<String> words = new ArrayList<>();
+        for (String line: lines(file))
+            for (String word: line.trim().split("\\s+"))
+                if (!word.isEmpty()) words.add(word);
+        return words.toArray(new String[0]);
+    }
+
+    private static List<String> lines(String file) {
+        try {
+            return Files.readAllLines(new File(file).toPath(), StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("could not read " + file, e);
+        }
+    }
+}
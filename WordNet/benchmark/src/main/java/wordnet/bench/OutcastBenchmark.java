@@ -0,0 +1,47 @@
+package wordnet.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Outcast.outcast on each assignment input; the inputs use nouns of the full WordNet
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class OutcastBenchmark {
+    @Param({"full"})
+    public String size;
+
+    @Param({"outcast2.txt", "outcast3.txt", "outcast4.txt", "outcast5.txt", "outcast5a.txt",
+            "outcast7.txt", "outcast8.txt", "outcast8a.txt", "outcast8b.txt", "outcast8c.txt",
+            "outcast9.txt", "outcast9a.txt", "outcast10.txt", "outcast10a.txt", "outcast11.txt",
+            "outcast12.txt", "outcast12a.txt", "outcast17.txt", "outcast20.txt", "outcast29.txt"})
+    public String input;
+
+    private Object outcast;
+    private String[] nouns;
+
+    @Setup
+    public void setUp() {
+        outcast = Api.outcast(Api.wordNet(Data.synsets(size), Data.hypernyms(size)));
+        nouns = Data.words(Data.file(input));
+    }
+
+    @Benchmark
+    public String outcast() {
+        return Api.outcast(outcast, nouns);
+    }
+}
@@ -0,0 +1,77 @@
+package wordnet.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// distance and sap on seeded random noun pairs. Throughput gives queries per microsecond;
+// SampleTime gives the latency distribution (p50, p90, p99, p99.9, ...). The multiId
+// benchmarks draw both nouns from those that belong to several synsets, so each query
+// starts its BFS from more than one source.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class QueryBenchmark {
+    private static final int PAIRS = 1 << 12;    // power of two, cycled through by a mask
+
+    @Param({"10000", "full"})
+    public String size;
+
+    @Param({"20240601"})
+    public long seed;
+
+    private Object wordNet;
+    private String[][] pairs;
+    private String[][] multiIdPairs;
+
+    // each benchmark thread walks the pairs from its own position
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup
+    public void setUp() {
+        String synsets = Data.synsets(size);
+        wordNet = Api.wordNet(synsets, Data.hypernyms(size));
+        pairs = Data.pairs(Data.nouns(synsets, 1), seed, PAIRS);
+        multiIdPairs = Data.pairs(Data.nouns(synsets, 2), seed, PAIRS);
+    }
+
+    @Benchmark
+    public int distance(Cursor cursor) {
+        int i = cursor.next++ & (PAIRS - 1);
+        return Api.distance(wordNet, pairs[0][i], pairs[1][i]);
+    }
+
+    @Benchmark
+    public String sap(Cursor cursor) {
+        int i = cursor.next++ & (PAIRS - 1);
+        return Api.sap(wordNet, pairs[0][i], pairs[1][i]);
+    }
+
+    @Benchmark
+    public int multiIdDistance(Cursor cursor) {
+        int i = cursor.next++ & (PAIRS - 1);
+        return Api.distance(wordNet, multiIdPairs[0][i], multiIdPairs[1][i]);
+    }
+
+    @Benchmark
+    public String multiIdSap(Cursor cursor) {
+        int i = cursor.next++ & (PAIRS - 1);
+        return Api.sap(wordNet, multiIdPairs[0][i], multiIdPairs[1][i]);
+    }
+}
@@ -0,0 +1,234 @@
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.princeton.cs.algs4.Digraph;
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdOut;
+
+// Precomputed ancestor labels for a DAG: for every vertex, all of its ancestors (itself included)
+// with their shortest distances, sorted by ancestor id. A length/ancestor query is then a merge of
+// two sorted lists instead of a graph traversal. Immutable, so safe to share between threads.
+class AncestorIndex {
+    // labels of v: labelVertex/labelDist[labelStart[v]] .. [labelStart[v+1] - 1]
+    private final IntStore labelStart;
+    private final IntStore labelVertex;
+    private final IntStore labelDist;
+
+    // build from a DAG whose edges point from a synset to its hypernyms; Time: O(L log L) for L label entries
+    AncestorIndex(CsrDigraph G) {
+        this(G, null, null);
+    }
+
+    // labels for G reusing old's labels for every vertex not marked affected; the affected set must
+    // be closed under hyponyms (a vertex whose ancestors changed drags its descendants along)
+    AncestorIndex(CsrDigraph G, AncestorIndex old, boolean[] affected) {
+        int V = G.V();
+        int[][] vertices = new int[V][];
+        int[][] dists = new int[V][];
+        if (old != null)
+            for (int v = 0; v < old.V(); v++)
+                if (!affected[v]) {
+                    int from = old.labelStart.get(v), to = old.labelStart.get(v + 1);
+                    vertices[v] = old.labelVertex.copyOfRange(from, to);
+                    dists[v] = old.labelDist.copyOfRange(from, to);
+                }
+
+        // Kahn's order on hypernym edges: a vertex is labelled once all its hypernyms are
+        CsrDigraph children = G.reverse();
+        int[] pending = new int[V];
+        int[] order = new int[V];
+        int head = 0, tail = 0, todo = 0;
+        for (int v = 0; v < V; v++) {
+            if (vertices[v] != null) continue;
+            todo++;
+            for (int e = G.offsets.get(v); e < G.offsets.get(v + 1); e++)
+                if (vertices[G.targets.get(e)] == null) pending[v]++;
+            if (pending[v] == 0) order[tail++] = v;
+        }
+
+        int[] best = new int[V];
+        Arrays.fill(best, -1);
+        int[] touched = new int[V];
+        while (head < tail) {
+            int v = order[head++];
+            int count = 0;
+            best[v] = 0;
+            touched[count++] = v;
+            for (int e = G.offsets.get(v); e < G.offsets.get(v + 1); e++) {
+                int p = G.targets.get(e);
+                for (int k = 0; k < vertices[p].length; k++) {
+                    int a = vertices[p][k];
+                    int d = dists[p][k] + 1;
+                    if (best[a] == -1) {
+                        best[a] = d;
+                        touched[count++] = a;
+                    }
+                    else if (d < best[a])
+                        best[a] = d;
+                }
+            }
+            Arrays.sort(touched, 0, count);
+            vertices[v] = Arrays.copyOf(touched, count);
+            dists[v] = new int[count];
+            for (int k = 0; k < count; k++) {
+                dists[v][k] = best[touched[k]];
+                best[touched[k]] = -1;
+            }
+
+            for (int e = children.offsets.get(v); e < children.offsets.get(v + 1); e++) {
+                int c = children.targets.get(e);
+                if (vertices[c] == null && --pending[c] == 0) order[tail++] = c;
+            }
+        }
+        if (tail != todo)
+            throw new IllegalArgumentException("Graph is not DAG");
+
+        // flatten into one CSR label table
+        int[] start = new int[V + 1];
+        for (int v = 0; v < V; v++)
+            start[v + 1] = start[v] + vertices[v].length;
+        int[] vertex = new int[start[V]];
+        int[] dist = new int[start[V]];
+        for (int v = 0; v < V; v++) {
+            System.arraycopy(vertices[v], 0, vertex, start[v], vertices[v].length);
+            System.arraycopy(dists[v], 0, dist, start[v], dists[v].length);
+        }
+        labelStart = new IntStore(start);
+        labelVertex = new IntStore(vertex);
+        labelDist = new IntStore(dist);
+    }
+
+    private AncestorIndex(IntStore labelStart, IntStore labelVertex, IntStore labelDist) {
+        this.labelStart = labelStart;
+        this.labelVertex = labelVertex;
+        this.labelDist = labelDist;
+    }
+
+    // the same labels in direct memory, off the Java heap
+    AncestorIndex toDirect() {
+        return offHeap() ? this : new AncestorIndex(labelStart.toDirect(), labelVertex.toDirect(), labelDist.toDirect());
+    }
+
+    AncestorIndex toHeap() {
+        return !offHeap() ? this : new AncestorIndex(labelStart.toHeap(), labelVertex.toHeap(), labelDist.toHeap());
+    }
+
+    boolean offHeap() {
+        return labelStart.offHeap();
+    }
+
+    int V() {
+        return labelStart.length() - 1;
+    }
+
+    // total number of (ancestor, distance) entries
+    int size() {
+        return labelVertex.length();
+    }
+
+    // bytes on the Java heap; labels held off the heap count nothing
+    long footprintBytes() {
+        return 24 + 3 * 24 + labelStart.heapBytes() + labelVertex.heapBytes() + labelDist.heapBytes();
+    }
+
+    // packed length and ancestor (see SAP.pack) of the closest pair of vertices from
+    // v[vFrom .. vTo-1] and w[wFrom .. wTo-1]
+    long lengthAndAncestor(IntStore v, int vFrom, int vTo, IntStore w, int wFrom, int wTo) {
+        int length = -1;
+        int ancestor = -1;
+        for (int i = vFrom; i < vTo; i++)
+            for (int j = wFrom; j < wTo; j++) {
+                long packed = lengthAndAncestor(v.get(i), w.get(j));
+                int l = SAP.unpackLength(packed);
+                if (l != -1 && (length == -1 || l < length)) {
+                    length = l;
+                    ancestor = SAP.unpackAncestor(packed);
+                }
+            }
+        return SAP.pack(length, ancestor);
+    }
+
+    // merge the two sorted label lists, keeping the common ancestor with the least total distance
+    long lengthAndAncestor(int v, int w) {
+        int i = labelStart.get(v), iEnd = labelStart.get(v + 1);
+        int j = labelStart.get(w), jEnd = labelStart.get(w + 1);
+        int length = -1;
+        int ancestor = -1;
+        while (i < iEnd && j < jEnd) {
+            int a = labelVertex.get(i);
+            int b = labelVertex.get(j);
+            if (a < b) i++;
+            else if (a > b) j++;
+            else {
+                int d = labelDist.get(i) + labelDist.get(j);
+                if (length == -1 || d < length) {
+                    length = d;
+                    ancestor = a;
+                }
+                i++;
+                j++;
+            }
+        }
+        return SAP.pack(length, ancestor);
+    }
+
+    // build time, index size and query speedup over SAP: java AncestorIndex hypernyms.txt ... [-queries n]
+    public static void main(String[] args) {
+        int queries = 20000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-queries")) {
+                queries = Integer.parseInt(args[++i]);
+                continue;
+            }
+            Digraph G = readHypernyms(args[i]);
+            CsrDigraph csr = new CsrDigraph(G);
+
+            long start = System.nanoTime();
+            AncestorIndex index = new AncestorIndex(csr);
+            double buildMs = (System.nanoTime() - start) / 1e6;
+
+            SAP sap = new SAP(G);
+            Random random = new Random(7);
+            int[] vs = new int[queries];
+            int[] ws = new int[queries];
+            for (int q = 0; q < queries; q++) {
+                vs[q] = random.nextInt(G.V());
+                ws[q] = random.nextInt(G.V());
+            }
+            for (int q = 0; q < queries; q++)
+                if (sap.length(vs[q], ws[q]) != SAP.unpackLength(index.lengthAndAncestor(vs[q], ws[q])))
+                    throw new IllegalStateException("index disagrees with SAP for " + vs[q] + ", " + ws[q]);
+
+            long sum = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < queries; q++)
+                sum += sap.length(vs[q], ws[q]);
+            double sapNs = (double) (System.nanoTime() - start) / queries;
+            start = System.nanoTime();
+            for (int q = 0; q < queries; q++)
+                sum -= SAP.unpackLength(index.lengthAndAncestor(vs[q], ws[q]));
+            double indexNs = (double) (System.nanoTime() - start) / queries;
+
+            StdOut.printf("%s: V = %d, E = %d, sum check = %d\n", args[i], G.V(), G.E(), sum);
+            StdOut.printf("  build %.1f ms, %,d entries (%.1f per vertex), %,d bytes\n",
+                          buildMs, index.size(), (double) index.size() / G.V(), index.footprintBytes());
+            StdOut.printf("  query: SAP.runSAP %.0f ns, index %.0f ns (%.1fx)\n", sapNs, indexNs, sapNs / indexNs);
+        }
+    }
+
+    // a hypernyms file alone: one vertex per id seen, edges from the first id to the rest
+    private static Digraph readHypernyms(String file) {
+        String[] lines = new In(file).readAllLines();
+        int V = 0;
+        for (String line: lines)
+            for (String id: line.split(","))
+                V = Math.max(V, Integer.parseInt(id) + 1);
+        Digraph G = new Digraph(V);
+        for (String line: lines) {
+            String[] ids = line.split(",");
+            for (int k = 1; k < ids.length; k++)
+                G.addEdge(Integer.parseInt(ids[0]), Integer.parseInt(ids[k]));
+        }
+        return G;
+    }
+}
@@ -0,0 +1,59 @@
+import java.util.Arrays;
+
+// Every ancestor reachable from a source set with its shortest distance, sorted by ancestor id:
+// the result of one full upward BFS. Two vectors intersect to give the SAP length between their
+// source sets without touching the graph again. Immutable.
+final class AncestorVector {
+    final int[] vertices;
+    final int[] dists;
+
+    AncestorVector(int[] vertices, int[] dists) {
+        this.vertices = vertices;
+        this.dists = dists;
+    }
+
+    // collect the v side of a finished BFS from the context
+    static AncestorVector fromSearch(SearchContext c) {
+        int n = c.touchedCount();
+        int[] vertices = new int[n];
+        for (int i = 0; i < n; i++)
+            vertices[i] = c.touched(i);
+        Arrays.sort(vertices);
+        int[] dists = new int[n];
+        for (int i = 0; i < n; i++)
+            dists[i] = c.vDist[vertices[i]];
+        return new AncestorVector(vertices, dists);
+    }
+
+    int size() {
+        return vertices.length;
+    }
+
+    // packed length and ancestor (see SAP.pack) of the closest common ancestor
+    long lengthAndAncestor(AncestorVector other) {
+        int i = 0, j = 0;
+        int length = -1;
+        int ancestor = -1;
+        while (i < vertices.length && j < other.vertices.length) {
+            int a = vertices[i];
+            int b = other.vertices[j];
+            if (a < b) i++;
+            else if (a > b) j++;
+            else {
+                int d = dists[i] + other.dists[j];
+                if (length == -1 || d < length) {
+                    length = d;
+                    ancestor = a;
+                }
+                i++;
+                j++;
+            }
+        }
+        return SAP.pack(length, ancestor);
+    }
+
+    // length of the shortest ancestral path, -1 if none
+    int length(AncestorVector other) {
+        return SAP.unpackLength(lengthAndAncestor(other));
+    }
+}
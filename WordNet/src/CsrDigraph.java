@@ -0,0 +1,165 @@
+import java.util.Arrays;
+
+import edu.princeton.cs.algs4.Digraph;
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdOut;
+
+// Immutable compressed sparse row adjacency: the vertices adjacent from v are
+// targets[offsets[v]] .. targets[offsets[v+1] - 1], in the order Digraph.adj(v) returns them.
+// Both arrays are IntStores, so the graph can also live off the heap (toDirect, or mapped)
+class CsrDigraph {
+    final IntStore offsets;
+    final IntStore targets;
+
+    // copy of a Digraph
+    CsrDigraph(Digraph G) {
+        int V = G.V();
+        int[] offsets = new int[V + 1];
+        int[] targets = new int[G.E()];
+        int e = 0;
+        for (int v = 0; v < V; v++) {
+            offsets[v] = e;
+            for (int w: G.adj(v))
+                targets[e++] = w;
+        }
+        offsets[V] = e;
+        this.offsets = new IntStore(offsets);
+        this.targets = new IntStore(targets);
+    }
+
+    // build from parallel edge arrays (from[i] -> to[i] for i < E), keeping the input order per vertex
+    CsrDigraph(int V, int[] from, int[] to, int E) {
+        int[] offsets = new int[V + 1];
+        int[] targets = new int[E];
+        for (int i = 0; i < E; i++) {
+            if (from[i] < 0 || from[i] >= V || to[i] < 0 || to[i] >= V)
+                throw new IllegalArgumentException("edge " + from[i] + "->" + to[i] + " out of range");
+            offsets[from[i] + 1]++;
+        }
+        for (int v = 0; v < V; v++)
+            offsets[v + 1] += offsets[v];
+        int[] next = Arrays.copyOf(offsets, V);
+        for (int i = 0; i < E; i++)
+            targets[next[from[i]]++] = to[i];
+        this.offsets = new IntStore(offsets);
+        this.targets = new IntStore(targets);
+    }
+
+    CsrDigraph(int[] offsets, int[] targets) {
+        this(new IntStore(offsets), new IntStore(targets));
+    }
+
+    // wrap existing stores, e.g. read back or mapped from a snapshot; checks they form a valid CSR graph
+    CsrDigraph(IntStore offsets, IntStore targets) {
+        int V = offsets.length() - 1;
+        if (V < 0 || offsets.get(0) != 0 || offsets.get(V) != targets.length())
+            throw new IllegalArgumentException("offsets do not match targets");
+        for (int v = 0; v < V; v++)
+            if (offsets.get(v) > offsets.get(v + 1))
+                throw new IllegalArgumentException("offsets are not ascending at " + v);
+        for (int e = 0; e < targets.length(); e++)
+            if (targets.get(e) < 0 || targets.get(e) >= V)
+                throw new IllegalArgumentException("target " + targets.get(e) + " out of range");
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    // the same graph in direct memory
+    CsrDigraph toDirect() {
+        return offsets.offHeap() && targets.offHeap() ? this : new CsrDigraph(offsets.toDirect(), targets.toDirect());
+    }
+
+    CsrDigraph toHeap() {
+        return !offsets.offHeap() && !targets.offHeap() ? this : new CsrDigraph(offsets.toHeap(), targets.toHeap());
+    }
+
+    // the same graph with every edge reversed
+    CsrDigraph reverse() {
+        int V = V();
+        int[] from = new int[E()];
+        int[] to = new int[E()];
+        int i = 0;
+        for (int v = 0; v < V; v++)
+            for (int e = offsets.get(v); e < offsets.get(v + 1); e++) {
+                from[i] = targets.get(e);
+                to[i++] = v;
+            }
+        return new CsrDigraph(V, from, to, E());
+    }
+
+    // a copy grown to V vertices with edges from[i] -> to[i] (i < E) added; each vertex lists its
+    // new edges first, latest first, the order a rebuild from the appended file would give.
+    // Stays off the heap if this graph is
+    CsrDigraph withEdges(int V, int[] from, int[] to, int E) {
+        if (V < V())
+            throw new IllegalArgumentException("cannot shrink from " + V() + " to " + V + " vertices");
+        int[] newOffsets = new int[V + 1];
+        for (int i = 0; i < E; i++) {
+            if (from[i] < 0 || from[i] >= V || to[i] < 0 || to[i] >= V)
+                throw new IllegalArgumentException("edge " + from[i] + "->" + to[i] + " out of range");
+            newOffsets[from[i] + 1]++;
+        }
+        for (int v = 0; v < V; v++)
+            newOffsets[v + 1] += newOffsets[v] + (v < V() ? outdegree(v) : 0);
+        int[] newTargets = new int[newOffsets[V]];
+        int[] next = Arrays.copyOf(newOffsets, V);
+        for (int i = E - 1; i >= 0; i--)
+            newTargets[next[from[i]]++] = to[i];
+        for (int v = 0; v < V(); v++)
+            for (int e = offsets.get(v); e < offsets.get(v + 1); e++)
+                newTargets[next[v]++] = targets.get(e);
+        CsrDigraph grown = new CsrDigraph(newOffsets, newTargets);
+        return offsets.offHeap() ? grown.toDirect() : grown;
+    }
+
+    int V() {
+        return offsets.length() - 1;
+    }
+
+    int E() {
+        return targets.length();
+    }
+
+    int outdegree(int v) {
+        return offsets.get(v + 1) - offsets.get(v);
+    }
+
+    /* ********** Memory footprint (64-bit JVM, compressed oops, 8-byte alignment) ********** */
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static long intArray(long n) {
+        return align(16 + 4 * n);
+    }
+
+    // heap bytes: object header + two store references, both stores and any arrays they hold
+    long footprintBytes() {
+        return align(12 + 4 + 4) + 2 * align(12 + 4 + 4 + 4) + offsets.heapBytes() + targets.heapBytes();
+    }
+
+    // Digraph: the object, its Bag[] and int[] indegree, one Bag per vertex,
+    // one Node and (outside the Integer cache) one boxed Integer per edge
+    static long digraphFootprintBytes(Digraph G) {
+        long bytes = align(12 + 4 + 4 + 4 + 4) + align(16 + 4L * G.V()) + intArray(G.V());
+        bytes += G.V() * align(12 + 4 + 4);
+        for (int v = 0; v < G.V(); v++)
+            for (int w: G.adj(v)) {
+                bytes += align(12 + 4 + 4);
+                if (w > 127) bytes += align(12 + 4);
+            }
+        return bytes;
+    }
+
+    // memory-footprint report: java CsrDigraph wordnet/digraph-wordnet.txt
+    public static void main(String[] args) {
+        Digraph G = new Digraph(new In(args[0]));
+        CsrDigraph csr = new CsrDigraph(G);
+        long digraphBytes = digraphFootprintBytes(G);
+        long csrBytes = csr.footprintBytes();
+        StdOut.printf("V = %d, E = %d\n", G.V(), G.E());
+        StdOut.printf("Digraph copy: %,d bytes\n", digraphBytes);
+        StdOut.printf("CSR copy:     %,d bytes (%.1fx smaller)\n", csrBytes, (double) digraphBytes / csrBytes);
+    }
+}
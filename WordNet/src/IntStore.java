@@ -0,0 +1,73 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+// Read-only ints kept either in a heap array or in an IntBuffer outside the heap: direct memory,
+// or a slice of a memory-mapped file that other processes can map too. get() checks which on
+// every call; a process that only uses heap stores has the buffer branch compiled away, so they
+// cost what plain arrays cost.
+final class IntStore {
+    private final int[] array;        // null when off the heap
+    private final IntBuffer buffer;   // null when on the heap
+    private final int length;
+
+    IntStore(int[] array) {
+        this.array = array;
+        this.buffer = null;
+        this.length = array.length;
+    }
+
+    // ints buffer[0 .. remaining-1], read with absolute gets
+    IntStore(IntBuffer buffer) {
+        this.array = null;
+        this.buffer = buffer.slice();
+        this.length = this.buffer.remaining();
+    }
+
+    int get(int i) {
+        return array != null ? array[i] : buffer.get(i);
+    }
+
+    int length() {
+        return length;
+    }
+
+    boolean offHeap() {
+        return array == null;
+    }
+
+    // copy into direct memory, native byte order; a store already off the heap is kept as is
+    IntStore toDirect() {
+        if (array == null) return this;
+        IntBuffer direct = ByteBuffer.allocateDirect(4 * length).order(ByteOrder.nativeOrder()).asIntBuffer();
+        for (int i = 0; i < length; i++)
+            direct.put(i, get(i));
+        return new IntStore(direct);
+    }
+
+    IntStore toHeap() {
+        return array != null ? this : new IntStore(copyOfRange(0, length));
+    }
+
+    int[] copyOfRange(int from, int to) {
+        if (array != null) return Arrays.copyOfRange(array, from, to);
+        int[] copy = new int[to - from];
+        for (int i = from; i < to; i++)
+            copy[i - from] = buffer.get(i);
+        return copy;
+    }
+
+    // same ints, wherever either store keeps them
+    boolean contentEquals(IntStore other) {
+        if (length != other.length) return false;
+        for (int i = 0; i < length; i++)
+            if (get(i) != other.get(i)) return false;
+        return true;
+    }
+
+    // bytes this store keeps on the Java heap
+    long heapBytes() {
+        return array != null ? 16 + 4L * ((length + 1) & ~1) : 0;
+    }
+}
@@ -0,0 +1,220 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import edu.princeton.cs.algs4.Bag;
+import edu.princeton.cs.algs4.StdOut;
+
+// Compact noun dictionary: sorted noun keys, the synset ids of key k in
+// postings[postingStart[k] .. postingStart[k+1]-1], and an open-addressing table of key indices
+// for O(1) lookups. Immutable, so safe to share between threads.
+class NounIndex {
+    final String[] keys;
+    final IntStore postingStart;
+    final IntStore postings;
+    private final int[] slots;     // pairs (hash, key index + 1); index 0 = empty slot
+    private final int mask;
+    private final List<String> keyList;
+
+    // from noun occurrences in file order (noun[i] is in synset ids[i]); each noun's ids are kept
+    // newest first, the order its Bag<Integer> used to iterate in
+    NounIndex(String[] nouns, int[] ids, int count) {
+        String[] sorted = Arrays.copyOf(nouns, count);
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < count; i++)
+            if (n == 0 || !sorted[i].equals(sorted[n - 1]))
+                sorted[n++] = sorted[i];
+        keys = Arrays.copyOf(sorted, n);
+
+        int capacity = Integer.highestOneBit(Math.max(2 * n, 2) - 1) << 1;
+        slots = new int[2 * capacity];
+        mask = capacity - 1;
+        for (int k = 0; k < n; k++)
+            fill(k);
+
+        int[] key = new int[count];
+        int[] start = new int[n + 1];
+        for (int i = 0; i < count; i++) {
+            key[i] = indexOf(nouns[i]);
+            start[key[i] + 1]++;
+        }
+        for (int k = 0; k < n; k++)
+            start[k + 1] += start[k];
+        int[] byKey = new int[count];
+        int[] next = Arrays.copyOf(start, n);
+        for (int i = count - 1; i >= 0; i--)
+            byKey[next[key[i]]++] = ids[i];
+        postingStart = new IntStore(start);
+        postings = new IntStore(byKey);
+        keyList = Collections.unmodifiableList(Arrays.asList(keys));
+    }
+
+    // from arrays already in this layout, e.g. read back from a snapshot
+    NounIndex(String[] keys, int[] postingStart, int[] postings) {
+        this(keys, new IntStore(postingStart), new IntStore(postings));
+    }
+
+    // postings may live off the heap, e.g. in a mapped snapshot
+    NounIndex(String[] keys, IntStore postingStart, IntStore postings) {
+        if (postingStart.length() != keys.length + 1 || postingStart.get(0) != 0
+            || postingStart.get(keys.length) != postings.length())
+            throw new IllegalArgumentException("postings do not match keys");
+        for (int k = 0; k < keys.length; k++)
+            if (postingStart.get(k) > postingStart.get(k + 1))
+                throw new IllegalArgumentException("posting starts are not ascending at " + k);
+        for (int k = 1; k < keys.length; k++)
+            if (keys[k - 1].compareTo(keys[k]) >= 0)
+                throw new IllegalArgumentException("noun keys are not sorted and unique");
+        this.keys = keys;
+        this.postingStart = postingStart;
+        this.postings = postings;
+        int capacity = Integer.highestOneBit(Math.max(2 * keys.length, 2) - 1) << 1;
+        slots = new int[2 * capacity];
+        mask = capacity - 1;
+        for (int k = 0; k < keys.length; k++)
+            fill(k);
+        keyList = Collections.unmodifiableList(Arrays.asList(keys));
+    }
+
+    // the same index with its postings in direct memory; keys and the lookup table stay shared
+    NounIndex toDirect() {
+        return postings.offHeap() ? this : new NounIndex(this, postingStart.toDirect(), postings.toDirect());
+    }
+
+    NounIndex toHeap() {
+        return !postings.offHeap() ? this : new NounIndex(this, postingStart.toHeap(), postings.toHeap());
+    }
+
+    private NounIndex(NounIndex index, IntStore postingStart, IntStore postings) {
+        this.keys = index.keys;
+        this.postingStart = postingStart;
+        this.postings = postings;
+        this.slots = index.slots;
+        this.mask = index.mask;
+        this.keyList = index.keyList;
+    }
+
+    // a copy with more noun occurrences appended to the file (noun[i] is in synset ids[i]): new
+    // nouns are merged into the sorted keys and new ids go in front of a noun's existing ones
+    NounIndex withNouns(String[] nouns, int[] ids, int count) {
+        NounIndex delta = new NounIndex(nouns, ids, count);
+        int n = keys.length, m = delta.keys.length;
+        String[] merged = new String[n + m];
+        int[] start = new int[n + m + 1];
+        int[] merge = new int[postings.length() + delta.postings.length()];
+        int i = 0, j = 0, k = 0, p = 0;
+        while (i < n || j < m) {
+            int cmp = i == n ? 1 : j == m ? -1 : keys[i].compareTo(delta.keys[j]);
+            if (cmp >= 0) {
+                merged[k] = delta.keys[j];
+                for (int q = delta.postingStart.get(j); q < delta.postingStart.get(j + 1); q++)
+                    merge[p++] = delta.postings.get(q);
+                j++;
+            }
+            if (cmp <= 0) {
+                merged[k] = keys[i];
+                for (int q = postingStart.get(i); q < postingStart.get(i + 1); q++)
+                    merge[p++] = postings.get(q);
+                i++;
+            }
+            start[++k] = p;
+        }
+        return new NounIndex(Arrays.copyOf(merged, k), Arrays.copyOf(start, k + 1), merge);
+    }
+
+    // index of the noun in keys, or -1
+    int indexOf(String noun) {
+        int h = spread(noun.hashCode());
+        for (int s = h & mask; slots[2 * s + 1] != 0; s = (s + 1) & mask) {
+            if (slots[2 * s] != h) continue;
+            int k = slots[2 * s + 1] - 1;
+            if (keys[k].equals(noun)) return k;
+        }
+        return -1;
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    // the sorted nouns, read-only
+    List<String> keys() {
+        return keyList;
+    }
+
+    // linear probing from the key's home slot
+    private void fill(int k) {
+        int h = spread(keys[k].hashCode());
+        int s = h & mask;
+        while (slots[2 * s + 1] != 0)
+            s = (s + 1) & mask;
+        slots[2 * s] = h;
+        slots[2 * s + 1] = k + 1;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    // heap before/after: java -Xmx1g NounIndex synsets.txt hypernyms.txt
+    public static void main(String[] args) {
+        WordNetLoader loader = new WordNetLoader(args[0], args[1]);
+
+        long base = usedHeap();
+        HashMap<String, Bag<Integer>> nounsToIdBag = new HashMap<>();
+        HashMap<Integer, String> idToSynset = new HashMap<>();
+        Bag<String> allNouns = new Bag<>();
+        for (int k = 0; k < loader.nounCount; k++) {
+            Bag<Integer> idBag = nounsToIdBag.get(loader.nouns[k]);
+            if (idBag == null) {
+                allNouns.add(loader.nouns[k]);
+                idBag = new Bag<>();
+                nounsToIdBag.put(loader.nouns[k], idBag);
+            }
+            idBag.add(loader.nounIds[k]);
+        }
+        for (int id = 0; id < loader.synsetCount; id++)
+            idToSynset.put(id, loader.synsets[id]);
+        long mapsBytes = usedHeap() - base;
+
+        base = usedHeap();
+        NounIndex index = new NounIndex(loader.nouns, loader.nounIds, loader.nounCount);
+        String[] synsets = Arrays.copyOf(loader.synsets, loader.synsetCount);
+        long indexBytes = usedHeap() - base;
+
+        // noun strings and synset strings are shared with the loader, so both figures exclude them
+        StdOut.printf("%d nouns, %d synsets\n", index.size(), synsets.length);
+        StdOut.printf("HashMap/Bag dictionary: %,d bytes\n", mapsBytes);
+        StdOut.printf("NounIndex + String[]:   %,d bytes (%.1fx smaller)\n", indexBytes, (double) mapsBytes / indexBytes);
+
+        // probe in random order so neither structure benefits from allocation order
+        String[] probes = Arrays.copyOf(loader.nouns, loader.nounCount);
+        Collections.shuffle(Arrays.asList(probes), new Random(11));
+        int found = 0;
+        for (int round = 0; round < 50; round++) {
+            long start = System.nanoTime();
+            for (String noun: probes)
+                if (nounsToIdBag.containsKey(noun)) found++;
+            long mapNs = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (String noun: probes)
+                if (index.indexOf(noun) >= 0) found++;
+            long indexNs = System.nanoTime() - start;
+            if (round == 49)
+                StdOut.printf("lookup: HashMap %.1f ns, NounIndex %.1f ns (%d hits)\n",
+                              (double) mapNs / probes.length, (double) indexNs / probes.length, found);
+        }
+        if (allNouns.size() != index.size() || idToSynset.size() != synsets.length)
+            throw new IllegalStateException("dictionaries differ");
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -1,35 +1,178 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdOut;
 
 public class Outcast {
+    private static final int SEQUENTIAL_THRESHOLD = 4;       // nouns per vector task
+    private static final long SEQUENTIAL_PAIRS = 1 << 14;    // pair intersections per sums task
+
     private final WordNet myWordnet;
-    
+    private final ForkJoinPool pool;
+
     // constructor takes a WordNet object
     public Outcast(WordNet wordnet) {
+        this(wordnet, ForkJoinPool.commonPool());
+    }
+
+    // batch scoring with outcasts() runs on the given pool
+    public Outcast(WordNet wordnet, ForkJoinPool pool) {
+        if (wordnet == null || pool == null)
+            throw new IllegalArgumentException("wordnet or pool is null");
         myWordnet = wordnet;
+        this.pool = pool;
     }
-    
+
     // given an array of WordNet nouns, return an outcast
     public String outcast(String[] nouns) {
+        if (nouns == null)
+            throw new IllegalArgumentException("nouns is null");
+        AncestorVector[] vectors = new AncestorVector[nouns.length];
+        vectorsOf(nouns, vectors, 0, nouns.length, new HashMap<String, AncestorVector>());
+        return pick(nouns, sums(vectors, 0, nouns.length));
+    }
+
+    // outcast of every noun list, scored in parallel on the pool
+    public String[] outcasts(List<String[]> nounLists) {
+        if (nounLists == null)
+            throw new IllegalArgumentException("nounLists is null");
+        String[][] lists = nounLists.toArray(new String[nounLists.size()][]);
+        for (String[] nouns: lists)
+            if (nouns == null)
+                throw new IllegalArgumentException("a noun list is null");
+        String[] result = new String[lists.length];
+        pool.invoke(new ListsTask(lists, result, 0, lists.length));
+        return result;
+    }
+
+    /* ********** Helper Private Functions ********** */
+
+    // one upward BFS per distinct noun; the vector is then reused against every partner
+    private void vectorsOf(String[] nouns, AncestorVector[] vectors, int from, int to,
+                           HashMap<String, AncestorVector> seen) {
+        for (int i = from; i < to; i++) {
+            AncestorVector vector = seen == null ? null : seen.get(nouns[i]);
+            if (vector == null) {
+                vector = myWordnet.ancestors(nouns[i]);
+                if (seen != null) seen.put(nouns[i], vector);
+            }
+            vectors[i] = vector;
+        }
+    }
+
+    // distance sums contributed by rows [from, to): each unordered pair (i, j), i < j, is
+    // intersected once and counted for both nouns; d(a, a) = 0 is skipped
+    private static long[] sums(AncestorVector[] vectors, int from, int to) {
+        int n = vectors.length;
+        long[] sums = new long[n];
+        for (int i = from; i < to; i++)
+            for (int j = i + 1; j < n; j++) {
+                int d = vectors[i].length(vectors[j]);
+                sums[i] += d;
+                sums[j] += d;
+            }
+        return sums;
+    }
 
+    // the first noun with the largest distance sum
+    private static String pick(String[] nouns, long[] sums) {
         String noun = "";
-        int distance;
-        int minDistance = -1;
-        
-        for (String ni: nouns) {
-            distance = 0;
-            for (String nj: nouns) {
-                distance += myWordnet.distance(ni, nj);
+        long maxDistance = -1;
+        for (int i = 0; i < nouns.length; i++)
+            if (sums[i] > maxDistance) {
+                maxDistance = sums[i];
+                noun = nouns[i];
             }
-            if (distance > minDistance) {
-                minDistance = distance;
-                noun = ni;
+        return noun;
+    }
+
+    // splits the list of noun lists; each list is split again by VectorsTask and SumsTask
+    private class ListsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final String[][] lists;
+        private final String[] result;
+        private final int from, to;
+
+        ListsTask(String[][] lists, String[] result, int from, int to) {
+            this.lists = lists;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) result[from] = scoreParallel(lists[from]);
+                return;
             }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ListsTask(lists, result, from, mid), new ListsTask(lists, result, mid, to));
         }
-        return noun;
     }
-    
+
+    private String scoreParallel(String[] nouns) {
+        AncestorVector[] vectors = new AncestorVector[nouns.length];
+        new VectorsTask(nouns, vectors, 0, nouns.length).invoke();
+        return pick(nouns, new SumsTask(vectors, 0, nouns.length).invoke());
+    }
+
+    // computes the ancestor vectors of one list in parallel; duplicates are not shared across tasks
+    private class VectorsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final String[] nouns;
+        private final AncestorVector[] vectors;
+        private final int from, to;
+
+        VectorsTask(String[] nouns, AncestorVector[] vectors, int from, int to) {
+            this.nouns = nouns;
+            this.vectors = vectors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                vectorsOf(nouns, vectors, from, to, null);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new VectorsTask(nouns, vectors, from, mid), new VectorsTask(nouns, vectors, mid, to));
+        }
+    }
+
+    // splits the rows of the pair triangle; each leaf sums into its own array, merged on join
+    private static class SumsTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+        private final AncestorVector[] vectors;
+        private final int from, to;
+
+        SumsTask(AncestorVector[] vectors, int from, int to) {
+            this.vectors = vectors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[] compute() {
+            if ((long) (to - from) * (vectors.length - from) <= SEQUENTIAL_PAIRS)
+                return sums(vectors, from, to);
+            int mid = (from + to) >>> 1;
+            SumsTask left = new SumsTask(vectors, from, mid);
+            left.fork();
+            long[] sums = new SumsTask(vectors, mid, to).compute();
+            long[] leftSums = left.join();
+            for (int i = 0; i < sums.length; i++)
+                sums[i] += leftSums[i];
+            return sums;
+        }
+    }
+
     public static void main(String[] args) {
         WordNet wordNet = new WordNet(args[0], args[1]);
         Outcast outcast = new Outcast(wordNet);
@@ -39,4 +182,4 @@ public class Outcast {
             StdOut.println(args[t] + ": " + outcast.outcast(nouns));
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,281 @@
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+// Bounded cache of noun-pair results; (a, b) and (b, a) share one entry. All methods are
+// synchronized, so one cache can sit in front of a WordNet shared by many threads
+public class PairCache {
+    public enum Policy { LRU, LFU }
+
+    // get() result when the pair is not cached
+    public static final long MISSING = Long.MIN_VALUE;
+
+    private final int capacity;
+    private final Policy policy;
+    private final Store store;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long generation;    // bumped by invalidate(), so results computed before it are dropped
+
+    public PairCache(int capacity, Policy policy) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        if (policy == null)
+            throw new IllegalArgumentException("policy is null");
+        this.capacity = capacity;
+        this.policy = policy;
+        this.store = policy == Policy.LRU ? new LruStore() : new LfuStore();
+    }
+
+    // cached value of the pair, or MISSING
+    public synchronized long get(String a, String b) {
+        Long value = store.get(new Key(a, b));
+        if (value == null) {
+            misses++;
+            return MISSING;
+        }
+        hits++;
+        return value;
+    }
+
+    public synchronized void put(String a, String b, long value) {
+        put(a, b, value, generation);
+    }
+
+    // store a value computed after reading generation(); ignored if an invalidate() came in between
+    public synchronized void put(String a, String b, long value, long generation) {
+        if (generation != this.generation) return;
+        Key key = new Key(a, b);
+        if (!store.contains(key) && store.size() == capacity) {
+            store.evict();
+            evictions++;
+        }
+        store.put(key, value);
+    }
+
+    public synchronized void clear() {
+        store.clear();
+        generation++;
+    }
+
+    // drop every pair involving one of the nouns; returns how many entries went
+    public synchronized int invalidate(Collection<String> nouns) {
+        HashSet<String> stale = new HashSet<>(nouns);
+        int removed = store.removeIf(stale);
+        generation++;
+        return removed;
+    }
+
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public synchronized int size() {
+        return store.size();
+    }
+
+    // counters at this moment, for export
+    public synchronized Stats stats() {
+        return new Stats(policy, capacity, store.size(), hits, misses, evictions);
+    }
+
+    public static final class Stats {
+        private final Policy policy;
+        private final int capacity;
+        private final int size;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        private Stats(Policy policy, int capacity, int size, long hits, long misses, long evictions) {
+            this.policy = policy;
+            this.capacity = capacity;
+            this.size = size;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public Policy policy()  { return policy; }
+        public int capacity()   { return capacity; }
+        public int size()       { return size; }
+        public long hits()      { return hits; }
+        public long misses()    { return misses; }
+        public long evictions() { return evictions; }
+
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0. : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s cache: size = %d/%d, hits = %d, misses = %d, evictions = %d, hit rate = %.3f",
+                                 policy, size, capacity, hits, misses, evictions, hitRate());
+        }
+    }
+
+    /* ********** Helper Private Classes ********** */
+
+    // order-insensitive pair of nouns
+    private static final class Key {
+        private final String first;
+        private final String second;
+
+        Key(String a, String b) {
+            if (a.compareTo(b) <= 0) {
+                first = a;
+                second = b;
+            }
+            else {
+                first = b;
+                second = a;
+            }
+        }
+
+        boolean involves(HashSet<String> nouns) {
+            return nouns.contains(first) || nouns.contains(second);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return first.equals(k.first) && second.equals(k.second);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * first.hashCode() + second.hashCode();
+        }
+    }
+
+    private interface Store {
+        Long get(Key key);          // also counts as a use of the key
+        boolean contains(Key key);  // does not
+        void put(Key key, long value);
+        void evict();               // drop the entry the policy ranks last
+        int removeIf(HashSet<String> nouns);   // drop entries with either noun in the set
+        int size();
+        void clear();
+    }
+
+    // least recently used: access-ordered LinkedHashMap, eldest entry goes first
+    private static final class LruStore implements Store {
+        private final LinkedHashMap<Key, Long> map = new LinkedHashMap<>(16, 0.75f, true);
+
+        public Long get(Key key)              { return map.get(key); }
+        public boolean contains(Key key)      { return map.containsKey(key); }
+        public void put(Key key, long value)  { map.put(key, value); }
+        public int size()                     { return map.size(); }
+        public void clear()                   { map.clear(); }
+
+        public void evict() {
+            Iterator<Key> eldest = map.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+
+        public int removeIf(HashSet<String> nouns) {
+            int removed = 0;
+            for (Iterator<Key> it = map.keySet().iterator(); it.hasNext(); )
+                if (it.next().involves(nouns)) {
+                    it.remove();
+                    removed++;
+                }
+            return removed;
+        }
+    }
+
+    // least frequently used, ties broken by least recent use; O(1) per operation
+    private static final class LfuStore implements Store {
+        private final HashMap<Key, Long> values = new HashMap<>();
+        private final HashMap<Key, Integer> counts = new HashMap<>();
+        private final HashMap<Integer, LinkedHashSet<Key>> buckets = new HashMap<>();
+        private int minCount;
+
+        public Long get(Key key) {
+            Long value = values.get(key);
+            if (value != null) touch(key);
+            return value;
+        }
+
+        public void put(Key key, long value) {
+            if (values.put(key, value) != null) {
+                touch(key);
+                return;
+            }
+            counts.put(key, 1);
+            bucket(1).add(key);
+            minCount = 1;
+        }
+
+        public void evict() {
+            LinkedHashSet<Key> bucket = buckets.get(minCount);
+            Key victim = bucket.iterator().next();
+            bucket.remove(victim);
+            if (bucket.isEmpty()) buckets.remove(minCount);
+            values.remove(victim);
+            counts.remove(victim);
+        }
+
+        public boolean contains(Key key) {
+            return values.containsKey(key);
+        }
+
+        public int removeIf(HashSet<String> nouns) {
+            int removed = 0;
+            for (Iterator<Key> it = values.keySet().iterator(); it.hasNext(); ) {
+                Key key = it.next();
+                if (!key.involves(nouns)) continue;
+                it.remove();
+                int count = counts.remove(key);
+                LinkedHashSet<Key> bucket = buckets.get(count);
+                bucket.remove(key);
+                if (bucket.isEmpty()) buckets.remove(count);
+                removed++;
+            }
+            // the lowest count may have gone; find the new one among what is left
+            minCount = 0;
+            for (int count: buckets.keySet())
+                if (minCount == 0 || count < minCount) minCount = count;
+            return removed;
+        }
+
+        public int size() {
+            return values.size();
+        }
+
+        public void clear() {
+            values.clear();
+            counts.clear();
+            buckets.clear();
+            minCount = 0;
+        }
+
+        private void touch(Key key) {
+            int count = counts.get(key);
+            LinkedHashSet<Key> bucket = buckets.get(count);
+            bucket.remove(key);
+            if (bucket.isEmpty()) {
+                buckets.remove(count);
+                if (minCount == count) minCount = count + 1;
+            }
+            counts.put(key, count + 1);
+            bucket(count + 1).add(key);
+        }
+
+        private LinkedHashSet<Key> bucket(int count) {
+            LinkedHashSet<Key> bucket = buckets.get(count);
+            if (bucket == null) {
+                bucket = new LinkedHashSet<>();
+                buckets.put(count, bucket);
+            }
+            return bucket;
+        }
+    }
+}
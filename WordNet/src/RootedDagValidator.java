@@ -0,0 +1,102 @@
+// Iterative O(V + E) check that a hypernym graph is a rooted DAG: acyclic, with exactly one
+// vertex that has no hypernyms. Uses Kahn's algorithm on the CSR arrays, so deep hypernym
+// chains need no extra stack, and failures name the offending cycle or roots.
+final class RootedDagValidator {
+    private static final int MAX_REPORTED = 10;
+
+    private RootedDagValidator() { }
+
+    // throws IllegalArgumentException describing the first problem found
+    static void validate(CsrDigraph G) {
+        int V = G.V();
+        int[] pending = new int[V];      // hypernyms not yet ordered
+        int[] order = new int[V];
+        int head = 0, tail = 0;
+        for (int v = 0; v < V; v++) {
+            pending[v] = G.outdegree(v);
+            if (pending[v] == 0) order[tail++] = v;
+        }
+        int roots = tail;
+        if (V == 0)
+            throw new IllegalArgumentException("Graph is not a rooted DAG: no root, the graph is empty");
+        if (roots == 0)
+            throw new IllegalArgumentException("Graph is not a rooted DAG: no root, cycle " + cycle(G, pending));
+        if (roots > 1)
+            throw new IllegalArgumentException("Graph is not a rooted DAG: " + roots + " roots " + list(order, roots));
+
+        // a vertex is ordered once all its hypernyms are; children come from the reversed graph
+        CsrDigraph children = G.reverse();
+        while (head < tail) {
+            int v = order[head++];
+            for (int e = children.offsets.get(v); e < children.offsets.get(v + 1); e++) {
+                int c = children.targets.get(e);
+                if (--pending[c] == 0) order[tail++] = c;
+            }
+        }
+        if (tail != V)
+            throw new IllegalArgumentException("Graph is not a rooted DAG: cycle " + cycle(G, pending));
+    }
+
+    // recheck after edges were added to a rooted DAG: any new cycle runs through a source of a new
+    // edge, so it lies inside the affected set (new vertices and everything below an edge source)
+    // and Kahn's algorithm restricted to that set finds it; children is G reversed, list[0 .. count-1]
+    // the affected vertices, and only new vertices (firstNew and up) can have become roots
+    static void validateAffected(CsrDigraph G, CsrDigraph children, boolean[] affected, int[] list, int count,
+                                 int firstNew) {
+        int V = G.V();
+        int[] pending = new int[V];
+        int[] order = new int[count];
+        int head = 0, tail = 0;
+        for (int i = 0; i < count; i++) {
+            int v = list[i];
+            if (v >= firstNew && G.outdegree(v) == 0)
+                throw new IllegalArgumentException("Graph is not a rooted DAG: new root " + v);
+            for (int e = G.offsets.get(v); e < G.offsets.get(v + 1); e++)
+                if (affected[G.targets.get(e)]) pending[v]++;
+            if (pending[v] == 0) order[tail++] = v;
+        }
+
+        while (head < tail) {
+            int v = order[head++];
+            for (int e = children.offsets.get(v); e < children.offsets.get(v + 1); e++) {
+                int c = children.targets.get(e);
+                if (affected[c] && --pending[c] == 0) order[tail++] = c;
+            }
+        }
+        if (tail != count)
+            throw new IllegalArgumentException("Graph is not a rooted DAG: cycle " + cycle(G, pending));
+    }
+
+    // every vertex left with pending > 0 has a hypernym that is also left, so following those
+    // edges must revisit a vertex; the walk from there back to itself is a cycle
+    private static String cycle(CsrDigraph G, int[] pending) {
+        int V = G.V();
+        int[] step = new int[V];        // 1-based position of the vertex in the walk, 0 = not yet
+        int[] walk = new int[V];
+        int start = 0;
+        while (pending[start] == 0)
+            start++;
+        int length = 0;
+        int v = start;
+        while (step[v] == 0) {
+            step[v] = ++length;
+            walk[length - 1] = v;
+            int next = -1;
+            for (int e = G.offsets.get(v); e < G.offsets.get(v + 1) && next == -1; e++)
+                if (pending[G.targets.get(e)] > 0) next = G.targets.get(e);
+            v = next;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = step[v] - 1; i < length; i++)
+            sb.append(walk[i]).append(" -> ");
+        return sb.append(v).toString();
+    }
+
+    private static String list(int[] vertices, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Math.min(n, MAX_REPORTED); i++)
+            sb.append(i == 0 ? "" : ", ").append(vertices[i]);
+        if (n > MAX_REPORTED) sb.append(", ...");
+        return sb.toString();
+    }
+}
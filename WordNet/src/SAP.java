@@ -1,55 +1,77 @@
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.IntConsumer;
 
-import edu.princeton.cs.algs4.Bag;
 import edu.princeton.cs.algs4.Digraph;
 import edu.princeton.cs.algs4.In;
-import edu.princeton.cs.algs4.Queue;
 import edu.princeton.cs.algs4.StdOut;
 
+// Safe to share between threads: the graph is immutable after construction and each
+// thread searches with its own SearchContext
 public class SAP {
 // all methods Space & Time: O( E + V )
 
-    private final Digraph sapGraph;
-    
-    // for simplification in length and ancestor calculation
-    private class Result {
-        int sLength = -1;
-        int sAncestor = -1;
-    }
+    private final CsrDigraph sapGraph;     // immutable CSR copy of the input graph
+    private final boolean bidirectional;   // alternate v/w frontiers and stop early
+    private final ThreadLocal<SearchContext> contexts;   // per-thread scratch arrays reused by every query
+    private volatile SAPMetrics metrics;   // optional, null when disabled
 
     // constructor takes a digraph (not necessarily a DAG)
     public SAP(final Digraph wordnet) {
+        this(wordnet, false);
+    }
+    
+    // bidirectional = true picks the early-terminating engine, false the full two-pass BFS;
+    // both give the same length (ancestor may differ on ties), so either can cross-check the other
+    public SAP(final Digraph wordnet, boolean bidirectional) {
         if (wordnet == null)
             throw new IllegalArgumentException("wordnet is null");
-        this.sapGraph = graphCopy(wordnet);
+        this.sapGraph = new CsrDigraph(wordnet);
+        this.bidirectional = bidirectional;
+        final int V = sapGraph.V();
+        this.contexts = ThreadLocal.withInitial(() -> new SearchContext(V));
+    }
+    
+    // share an already built CSR graph; no copy is needed since CsrDigraph is immutable
+    SAP(CsrDigraph graph, boolean bidirectional) {
+        if (graph == null)
+            throw new IllegalArgumentException("graph is null");
+        this.sapGraph = graph;
+        this.bidirectional = bidirectional;
+        final int V = sapGraph.V();
+        this.contexts = ThreadLocal.withInitial(() -> new SearchContext(V));
     }
     
-    // defensive copy
-    private Digraph graphCopy(Digraph G) {
-        Digraph newG = new Digraph(G.V());
-        for (int v = 0; v < G.V(); v++)
-            for (int vc: G.adj(v))
-                newG.addEdge(v, vc);
-        return newG;
+    // the immutable CSR copy, for indexes built over the same graph
+    CsrDigraph graph() {
+        return sapGraph;
+    }
+    
+    // record every length and ancestor query into metrics; null turns recording off
+    public void setMetrics(SAPMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    public SAPMetrics metrics() {
+        return metrics;
     }
     
     /* ********************** For length ********************* */
     
     // length of shortest ancestral path between v and w; return -1 if no such path
     public int length(int v, int w) {
-        Bag<Integer> vBag = new Bag<>();
-        Bag<Integer> wBag = new Bag<>();
-        vBag.add(v);
-        wBag.add(w);
-        return length(vBag, wBag);
+        return search(v, w, SAPMetrics.Kind.LENGTH).length;
     }
     
     // length of shortest ancestral path between any vertex in v and any vertex in w; return -1 if no such path
     public int length(Iterable<Integer> v, Iterable<Integer> w) {
-        checkVW(v, w);
-        Result myResult = new Result();
-        runSAP(v, w, myResult);
-        return myResult.sLength;
+        return search(v, w, SAPMetrics.Kind.LENGTH).length;
+    }
+    
+    // same as above without boxing
+    public int length(int[] v, int[] w) {
+        return search(v, w, SAPMetrics.Kind.LENGTH).length;
     }
     
 //    // illegal input of length
@@ -61,19 +83,171 @@ public class SAP {
     
     // a common ancestor of v and w that participates in a shortest ancestral path; return -1 if no such path
     public int ancestor(int  v, int w) {
-        Bag<Integer> vBag = new Bag<>();
-        Bag<Integer> wBag = new Bag<>();
-        vBag.add(v);
-        wBag.add(w);
-        return ancestor(vBag, wBag);
+        return search(v, w, SAPMetrics.Kind.ANCESTOR).ancestor;
     }
     
     // a common ancestor that participates in shortes t ancestral path; return -1 if no such path
     public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
-        checkVW(v, w);
-        Result myResult = new Result();
-        runSAP(v, w, myResult);
-        return myResult.sAncestor;
+        return search(v, w, SAPMetrics.Kind.ANCESTOR).ancestor;
+    }
+    
+    // same as above without boxing
+    public int ancestor(int[] v, int[] w) {
+        return search(v, w, SAPMetrics.Kind.ANCESTOR).ancestor;
+    }
+    
+    // length and ancestor from one search, packed as (length << 32) | ancestor; see unpack helpers.
+    // Sources are v[vFrom .. vTo-1] and w[wFrom .. wTo-1], already known to be valid vertices;
+    // kind is what the caller wants, for metrics, or null when the caller times the query itself
+    long lengthAndAncestor(SAPMetrics.Kind kind, IntStore v, int vFrom, int vTo, IntStore w, int wFrom, int wTo) {
+        SearchContext c = contexts.get();
+        c.reset();
+        for (int i = vFrom; i < vTo; i++)
+            c.markV(v.get(i), 0);
+        for (int i = wFrom; i < wTo; i++)
+            seedW(c, w.get(i));
+        runSAP(c, kind);
+        return pack(c.length, c.ancestor);
+    }
+    
+    // one source set against n target sets: result[i] is the packed length and ancestor between
+    // v[vFrom .. vTo-1] and w[wFrom[i] .. wTo[i]-1]. The v side is searched once, fully; each
+    // target then only runs its w side, which stops once its depth reaches the best length found.
+    // Ancestor ties are resolved as the bidirectional engine resolves them, see meetingOrder().
+    // The work goes into the metrics as one search; timing is left to the caller.
+    void lengthsAndAncestors(IntStore v, int vFrom, int vTo, IntStore w, int[] wFrom, int[] wTo, int n, long[] result) {
+        SearchContext c = contexts.get();
+        c.reset();
+        for (int i = vFrom; i < vTo; i++)
+            c.markV(v.get(i), 0);
+        IntStore offsets = sapGraph.offsets;
+        IntStore targets = sapGraph.targets;
+        while (c.vSize() > 0) {
+            int vertex = c.pollV();
+            int childDist = c.vDist[vertex] + 1;
+            int last = offsets.get(vertex + 1);
+            for (int e = offsets.get(vertex); e < last; e++)
+                c.markV(targets.get(e), childDist);
+        }
+        c.rankV();
+        SAPMetrics m = metrics;
+        int vDequeued = c.dequeued();
+        int vScanned = m == null ? 0 : c.scanned(sapGraph);
+        int dequeued = vDequeued, scanned = vScanned, intersected = 0;
+        for (int q = 0; q < n; q++) {
+            c.resetW();
+            for (int i = wFrom[q]; i < wTo[q]; i++)
+                c.markW(w.get(i), 0);
+            long best = Long.MAX_VALUE;   // meetingOrder() of the ancestor
+            while (c.wSize() > 0) {
+                int vertex = c.pollW();
+                if (c.length != -1 && c.wDist[vertex] >= c.length) break;
+                if (c.vDist[vertex] != SearchContext.UNSEEN) {
+                    int d = c.vDist[vertex] + c.wDist[vertex];
+                    long order = meetingOrder(c, vertex, c.wPolled() - 1);
+                    if (c.length == -1 || d < c.length || d == c.length && order < best) {
+                        c.length = d;
+                        c.ancestor = vertex;
+                        best = order;
+                    }
+                }
+                int childDist = c.wDist[vertex] + 1;
+                int last = offsets.get(vertex + 1);
+                for (int e = offsets.get(vertex); e < last; e++)
+                    c.markW(targets.get(e), childDist);
+            }
+            result[q] = pack(c.length, c.ancestor);
+            if (m != null) {
+                dequeued += c.dequeued() - vDequeued;
+                scanned += c.scanned(sapGraph) - vScanned;
+                intersected += c.intersected();
+            }
+        }
+        // one search as far as the counters go: the v side once and every target's w side
+        if (m != null) m.searched(dequeued, scanned, intersected);
+    }
+    
+    // when the bidirectional engine meets at x, whose w label is at wIndex in the w queue. It labels
+    // level 0 of v, then of w, then level 1 of v, and so on, and meets at x along with the later of
+    // x's two labels, in that side's queue order; the first meeting at the least length is its
+    // ancestor. Meetings it skips by stopping early are never shorter than the one it keeps
+    private static long meetingOrder(SearchContext c, int x, int wIndex) {
+        int vDist = c.vDist[x], wDist = c.wDist[x];
+        if (vDist > wDist) return (long) (2 * vDist) << 32 | c.vRank(x);
+        return (long) (2 * wDist + 1) << 32 | wIndex;
+    }
+    
+    // full upward BFS from v[vFrom .. vTo-1], kept as a sparse ancestor-distance vector
+    AncestorVector ancestors(IntStore v, int vFrom, int vTo) {
+        SearchContext c = contexts.get();
+        c.reset();
+        for (int i = vFrom; i < vTo; i++)
+            c.markV(v.get(i), 0);
+        IntStore offsets = sapGraph.offsets;
+        IntStore targets = sapGraph.targets;
+        while (c.vSize() > 0) {
+            int vertex = c.pollV();
+            int childDist = c.vDist[vertex] + 1;
+            int first = offsets.get(vertex), last = offsets.get(vertex + 1);
+            for (int e = first; e < last; e++)
+                c.markV(targets.get(e), childDist);
+        }
+        return AncestorVector.fromSearch(c);
+    }
+    
+    // told about each vertex once, at its distance; returning false stops the search once every
+    // vertex at that distance has been reported
+    interface OutwardVisitor {
+        boolean visit(int vertex, int dist);
+    }
+    
+    // every vertex in order of SAP distance from v[vFrom .. vTo-1]: paths go up any number of edges,
+    // then down through hyponyms (this graph reversed). The v side of the context labels vertices
+    // reached going up, the w side those that can still go down; each up label is a down label too
+    void outward(IntStore v, int vFrom, int vTo, CsrDigraph hyponyms, OutwardVisitor visitor) {
+        SearchContext c = contexts.get();
+        c.reset();
+        boolean more = true;
+        for (int i = vFrom; i < vTo; i++) {
+            int x = v.get(i);
+            c.markV(x, 0);
+            if (c.markW(x, 0)) more &= visitor.visit(x, 0);
+        }
+        IntStore offsets = sapGraph.offsets;
+        IntStore targets = sapGraph.targets;
+        for (int dist = 1; more && (c.vSize() > 0 || c.wSize() > 0); dist++) {
+            int downLevel = c.wSize();   // the up pass below adds the next level's down labels
+            for (int levelSize = c.vSize(); levelSize > 0; levelSize--) {
+                int vertex = c.pollV();
+                int first = offsets.get(vertex), last = offsets.get(vertex + 1);
+                for (int e = first; e < last; e++) {
+                    int x = targets.get(e);
+                    if (c.markV(x, dist) && c.markW(x, dist))
+                        more &= visitor.visit(x, dist);
+                }
+            }
+            for (int levelSize = downLevel; levelSize > 0; levelSize--) {
+                int vertex = c.pollW();
+                int first = hyponyms.offsets.get(vertex), last = hyponyms.offsets.get(vertex + 1);
+                for (int e = first; e < last; e++) {
+                    int x = hyponyms.targets.get(e);
+                    if (c.markW(x, dist))
+                        more &= visitor.visit(x, dist);
+                }
+            }
+        }
+    }
+    
+    static long pack(int length, int ancestor) {
+        return ((long) length << 32) | (ancestor & 0xFFFFFFFFL);
+    }
+    
+    static int unpackLength(long packed) {
+        return (int) (packed >> 32);
+    }
+    
+    static int unpackAncestor(long packed) {
+        return (int) packed;
     }
     
 //    // illegal input of ancestor
@@ -81,8 +255,92 @@ public class SAP {
 //        throw new IllegalArgumentException("Other cases for v and w");
 //    }
     
+    /* ********************** For distance matrices ********************* */
+    
+    // receives matrix rows as they are finished; calls never overlap, but may come from
+    // executor threads and in any row order
+    public interface RowListener {
+        void row(int i, int[] lengths);
+    }
+    
+    // k x k lengths between k vertex sets: one upward BFS per set, then every entry is an
+    // intersection of two sparse ancestor-distance vectors. executor may be null (caller's thread)
+    public int[][] lengthMatrix(List<? extends Iterable<Integer>> sets, ExecutorService executor) {
+        final AncestorVector[] vectors = ancestorVectors(sets, executor);
+        final int k = vectors.length;
+        final int[][] matrix = new int[k][k];
+        forEach(k, executor, i -> {
+            for (int j = i; j < k; j++)
+                matrix[i][j] = vectors[i].length(vectors[j]);
+        });
+        for (int i = 0; i < k; i++)
+            for (int j = 0; j < i; j++)
+                matrix[i][j] = matrix[j][i];
+        return matrix;
+    }
+    
+    // same rows as lengthMatrix, handed to the listener one at a time instead of kept; each row is
+    // computed in full, so the intersections are done twice, where lengthMatrix mirrors one triangle,
+    // in exchange for holding one row per task rather than the whole matrix
+    public void streamLengthMatrix(List<? extends Iterable<Integer>> sets, ExecutorService executor,
+                                   final RowListener listener) {
+        if (listener == null)
+            throw new IllegalArgumentException("listener is null");
+        final AncestorVector[] vectors = ancestorVectors(sets, executor);
+        final int k = vectors.length;
+        forEach(k, executor, i -> {
+            int[] row = new int[k];
+            for (int j = 0; j < k; j++)
+                row[j] = vectors[i].length(vectors[j]);
+            synchronized (listener) {
+                listener.row(i, row);
+            }
+        });
+    }
+    
+    // each set validated and copied in one pass, then searched upward once
+    private AncestorVector[] ancestorVectors(List<? extends Iterable<Integer>> sets, ExecutorService executor) {
+        if (sets == null)
+            throw new IllegalArgumentException("sets is null");
+        final int[][] sources = new int[sets.size()][];
+        final int[] sizes = new int[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            Iterable<Integer> set = sets.get(i);
+            if (set == null)
+                throw new IllegalArgumentException("set " + i + " is null");
+            int[] ids = new int[8];
+            int n = 0;
+            for (Integer x: set) {
+                if (x == null || x < 0 || x >= sapGraph.V())
+                    throw new IllegalArgumentException("set " + i + " has a null or out of range vertex");
+                if (n == ids.length) ids = Arrays.copyOf(ids, 2 * n);
+                ids[n++] = x;
+            }
+            sources[i] = ids;
+            sizes[i] = n;
+        }
+        final AncestorVector[] vectors = new AncestorVector[sources.length];
+        forEach(sources.length, executor, i -> vectors[i] = ancestors(new IntStore(sources[i]), 0, sizes[i]));
+        return vectors;
+    }
+    
+    // task(0) .. task(n-1), on the executor when there is one, and wait for all of them
+    private static void forEach(int n, ExecutorService executor, IntConsumer task) {
+        if (executor == null) {
+            for (int i = 0; i < n; i++)
+                task.accept(i);
+            return;
+        }
+        Tasks.runAll(executor, n, task, "computing the matrix");
+    }
+    
     /* ********** Helper Private Functions ********** */
 
+    private void checkVertex(int x) {
+        if (x < 0 || x >= sapGraph.V())
+            throw new IllegalArgumentException("v or w exceeds legal range");
+    }
+    
     private void checkVW(Iterable<Integer> v, Iterable<Integer> w) {
         if (v == null || w == null)
             throw new IllegalArgumentException("v or w is null");
@@ -92,60 +350,145 @@ public class SAP {
             if (wi == null || wi < 0  || wi >= sapGraph.V())  throw new IllegalArgumentException("v or w is null or exceeds legal range");
     }
     
-    private void runSAP(Iterable<Integer> v, Iterable<Integer> w, Result myResult) {
-        Queue<Integer> vQueue = new Queue<>();
-        HashMap<Integer, Integer> vHash = new HashMap<>();
-        vBFS(v, vQueue, vHash); 
-        
-        // do BFS for w, return distance when find the same ancestor
-        Queue<Integer> wQueue = new Queue<>();
-        HashMap<Integer, Integer> wHash = new HashMap<>();
-        wBFS(w, wQueue, wHash, vHash, myResult);
+    private void checkVW(int[] v, int[] w) {
+        if (v == null || w == null)
+            throw new IllegalArgumentException("v or w is null");
+        for (int vi: v)
+            checkVertex(vi);
+        for (int wi: w)
+            checkVertex(wi);
+    }
+    
+    // seed the context with the sources, then run the selected engine
+    private SearchContext search(int v, int w, SAPMetrics.Kind kind) {
+        checkVertex(v);
+        checkVertex(w);
+        SearchContext c = contexts.get();
+        c.reset();
+        c.markV(v, 0);
+        seedW(c, w);
+        return runSAP(c, kind);
+    }
+    
+    private SearchContext search(Iterable<Integer> v, Iterable<Integer> w, SAPMetrics.Kind kind) {
+        checkVW(v, w);
+        SearchContext c = contexts.get();
+        c.reset();
+        for (int vi: v)
+            c.markV(vi, 0);
+        for (int wi: w)
+            seedW(c, wi);
+        return runSAP(c, kind);
+    }
+    
+    private SearchContext search(int[] v, int[] w, SAPMetrics.Kind kind) {
+        checkVW(v, w);
+        SearchContext c = contexts.get();
+        c.reset();
+        for (int vi: v)
+            c.markV(vi, 0);
+        for (int wi: w)
+            seedW(c, wi);
+        return runSAP(c, kind);
+    }
+    
+    private void seedW(SearchContext c, int wi) {
+        if (c.markW(wi, 0) && c.vDist[wi] != SearchContext.UNSEEN)
+            c.meet(wi);
     }
-
     
-    // BFS for v to find the distance to different ancestors
-    private void vBFS(Iterable<Integer> v, Queue<Integer> vQueue, HashMap<Integer, Integer> vHash) {
-        for (int vi: v) {
-            vQueue.enqueue(vi);
-            vHash.put(vi, 0);
+    // the clock is only read when metrics are on and kind is given
+    private SearchContext runSAP(SearchContext c, SAPMetrics.Kind kind) {
+        SAPMetrics m = metrics;
+        long start = m == null || kind == null ? 0 : System.nanoTime();
+        if (bidirectional)
+            runBidirectional(c);
+        else
+            runFull(c);
+        if (m != null) {
+            if (kind != null) m.record(kind, System.nanoTime() - start);
+            m.searched(c.dequeued(), c.scanned(sapGraph), c.intersected());
         }
-        while (!vQueue.isEmpty()) {
-            int vertex = vQueue.dequeue();
-            for (int vertexChild: sapGraph.adj(vertex)) {
-                if (!vHash.containsKey(vertexChild)) {
-                    vQueue.enqueue(vertexChild);
-                    vHash.put(vertexChild, vHash.get(vertex) + 1);
-                }
-            }            
-        }  
+        return c;
     }
     
-    // DFS for w to find the distance from ancestors, pick the one with least distance from w
-    private void wBFS(Iterable<Integer> w, Queue<Integer> wQueue, HashMap<Integer, Integer> wHash, HashMap<Integer, Integer> vHash, Result myResult) {
-        myResult.sLength = sapGraph.V() + 1;
-        
-        for (int wi: w) {
-            wQueue.enqueue(wi);
-            wHash.put(wi, 0);
+    // BFS for v to find the distance to every ancestor, then BFS for w picking the
+    // ancestor with the least total distance
+    private void runFull(SearchContext c) {
+        IntStore offsets = sapGraph.offsets;
+        IntStore targets = sapGraph.targets;
+        while (c.vSize() > 0) {
+            int vertex = c.pollV();
+            int childDist = c.vDist[vertex] + 1;
+            int first = offsets.get(vertex), last = offsets.get(vertex + 1);
+            for (int e = first; e < last; e++)
+                c.markV(targets.get(e), childDist);
         }
-        while (!wQueue.isEmpty()) {
-            int vertex = wQueue.dequeue();
-            if (vHash.containsKey(vertex)) {
-                if (vHash.get(vertex) + wHash.get(vertex) < myResult.sLength) {
-                    myResult.sLength = vHash.get(vertex) + wHash.get(vertex);
-                    myResult.sAncestor = vertex;
-                }
+        while (c.wSize() > 0) {
+            int vertex = c.pollW();
+            if (c.vDist[vertex] != SearchContext.UNSEEN)
+                c.meet(vertex);
+            int childDist = c.wDist[vertex] + 1;
+            int first = offsets.get(vertex), last = offsets.get(vertex + 1);
+            for (int e = first; e < last; e++)
+                c.markW(targets.get(e), childDist);
+        }
+    }
+    
+    /* ********** Bidirectional engine ********** */
+    
+    // expand the v and w frontiers one level at a time in turn; a side whose next level is
+    // already as deep as the best length found can only produce longer paths, so it stops
+    private void runBidirectional(SearchContext c) {
+        int vDepth = 0;
+        int wDepth = 0;
+        boolean vTurn = true;
+        while (true) {
+            boolean vLive = c.vSize() > 0 && (c.length == -1 || vDepth + 1 < c.length);
+            boolean wLive = c.wSize() > 0 && (c.length == -1 || wDepth + 1 < c.length);
+            if (!vLive && !wLive) break;
+            if (vTurn && !vLive || !vTurn && !wLive) vTurn = !vTurn;
+            if (vTurn) {
+                expandV(c);
+                vDepth++;
+            }
+            else {
+                expandW(c);
+                wDepth++;
+            }
+            vTurn = !vTurn;
+        }
+    }
+    
+    // dequeue exactly one BFS level of the v side, recording meetings with the w side
+    private void expandV(SearchContext c) {
+        IntStore offsets = sapGraph.offsets;
+        IntStore targets = sapGraph.targets;
+        for (int levelSize = c.vSize(); levelSize > 0; levelSize--) {
+            int vertex = c.pollV();
+            int childDist = c.vDist[vertex] + 1;
+            int first = offsets.get(vertex), last = offsets.get(vertex + 1);
+            for (int e = first; e < last; e++) {
+                int vertexChild = targets.get(e);
+                if (c.markV(vertexChild, childDist) && c.wDist[vertexChild] != SearchContext.UNSEEN)
+                    c.meet(vertexChild);
+            }
+        }
+    }
+    
+    private void expandW(SearchContext c) {
+        IntStore offsets = sapGraph.offsets;
+        IntStore targets = sapGraph.targets;
+        for (int levelSize = c.wSize(); levelSize > 0; levelSize--) {
+            int vertex = c.pollW();
+            int childDist = c.wDist[vertex] + 1;
+            int first = offsets.get(vertex), last = offsets.get(vertex + 1);
+            for (int e = first; e < last; e++) {
+                int vertexChild = targets.get(e);
+                if (c.markW(vertexChild, childDist) && c.vDist[vertexChild] != SearchContext.UNSEEN)
+                    c.meet(vertexChild);
             }
-            for (int vertexChild: sapGraph.adj(vertex)) {
-                if (!wHash.containsKey(vertexChild)) {
-                    wQueue.enqueue(vertexChild);
-                    wHash.put(vertexChild, wHash.get(vertex) + 1);
-                }
-            }            
         }
-        if (myResult.sLength > sapGraph.V())
-            myResult.sLength = -1;
     }
     
     
@@ -155,6 +498,8 @@ public class SAP {
         Digraph G = new Digraph(in);
         SAP sap = new SAP(G);
         StdOut.printf("length = %d, ancestor = %d\n", sap.length(1, 5), sap.ancestor(1, 5));
+        SAP biSap = new SAP(G, true);
+        StdOut.printf("bidirectional: length = %d, ancestor = %d\n", biSap.length(1, 5), biSap.ancestor(1, 5));
 //        while (!StdIn.isEmpty()) {
 //            int v = StdIn.readInt();
 //            int w = StdIn.readInt();
@@ -0,0 +1,345 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import edu.princeton.cs.algs4.StdOut;
+
+// Query metrics for a SAP and the WordNet on top of it: work counters, latency histograms per
+// kind of query and the slowest noun pairs. Recording is lock-free except when a pair makes it
+// into the slowest list. Nothing here runs while a SAP has no metrics set.
+public class SAPMetrics implements SAPMetricsMXBean {
+    public enum Kind { LENGTH, ANCESTOR }
+
+    public static final int DEFAULT_SLOWEST = 20;
+
+    private final Histogram[] latency = { new Histogram(), new Histogram() };   // by Kind.ordinal()
+    private final LongAdder dequeued = new LongAdder();
+    private final LongAdder scanned = new LongAdder();
+    private final LongAdder intersected = new LongAdder();
+    private final AtomicLong maxDequeued = new AtomicLong();
+    private final AtomicLong maxScanned = new AtomicLong();
+
+    private final int slowestCapacity;
+    private final PriorityQueue<SlowPair> slowest;   // fastest of the kept pairs on top
+    private volatile long slowestFloor;              // a pair must beat this to be kept
+    private final ThreadLocal<int[]> lastCounts = ThreadLocal.withInitial(() -> new int[3]);
+
+    public SAPMetrics() {
+        this(DEFAULT_SLOWEST);
+    }
+
+    // keep the given number of slowest noun pairs
+    public SAPMetrics(int slowestPairs) {
+        if (slowestPairs < 0)
+            throw new IllegalArgumentException("slowestPairs is negative");
+        slowestCapacity = slowestPairs;
+        slowest = new PriorityQueue<>(Math.max(slowestPairs, 1), (x, y) -> Long.compare(x.nanos, y.nanos));
+        slowestFloor = slowestPairs == 0 ? Long.MAX_VALUE : -1;
+    }
+
+    // one length or ancestor query, however it was answered (search, index or cache)
+    void record(Kind kind, long nanos) {
+        latency[kind.ordinal()].add(nanos);
+    }
+
+    // the work of one SAP search; the counts are also kept for this thread's next pair() call
+    void searched(int dequeuedVertices, int scannedEdges, int intersectedAncestors) {
+        dequeued.add(dequeuedVertices);
+        scanned.add(scannedEdges);
+        intersected.add(intersectedAncestors);
+        raise(maxDequeued, dequeuedVertices);
+        raise(maxScanned, scannedEdges);
+        int[] last = lastCounts.get();
+        last[0] = dequeuedVertices;
+        last[1] = scannedEdges;
+        last[2] = intersectedAncestors;
+    }
+
+    // one noun-pair query as the caller saw it; searched means this thread's last record() was it
+    void pair(String nounA, String nounB, long nanos, boolean searched) {
+        if (nanos <= slowestFloor) return;
+        int[] counts = searched ? lastCounts.get() : new int[3];
+        SlowPair pair = new SlowPair(nounA, nounB, nanos, counts[0], counts[1], counts[2]);
+        synchronized (slowest) {
+            if (nanos <= slowestFloor) return;
+            slowest.add(pair);
+            if (slowest.size() > slowestCapacity) slowest.poll();
+            if (slowest.size() == slowestCapacity) slowestFloor = slowest.peek().nanos;
+        }
+    }
+
+    // counters at this moment; each one is read on its own while queries may still be recording
+    public Snapshot snapshot() {
+        List<SlowPair> pairs;
+        synchronized (slowest) {
+            pairs = new ArrayList<>(slowest);
+        }
+        Collections.sort(pairs, (x, y) -> Long.compare(y.nanos, x.nanos));
+        return new Snapshot(latency[0].snapshot(), latency[1].snapshot(), dequeued.sum(), scanned.sum(),
+                            intersected.sum(), maxDequeued.get(), maxScanned.get(), pairs);
+    }
+
+    public void reset() {
+        for (Histogram h: latency)
+            h.clear();
+        dequeued.reset();
+        scanned.reset();
+        intersected.reset();
+        maxDequeued.set(0);
+        maxScanned.set(0);
+        synchronized (slowest) {
+            slowest.clear();
+            slowestFloor = slowestCapacity == 0 ? Long.MAX_VALUE : -1;
+        }
+    }
+
+    // register with the platform MBean server as WordNet:type=SAPMetrics,name=<name>
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("WordNet:type=SAPMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        }
+        catch (JMException e) {
+            throw new IllegalArgumentException("could not register SAPMetrics " + name, e);
+        }
+    }
+
+    private static void raise(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) { }
+    }
+
+    /* ********** SAPMetricsMXBean ********** */
+
+    public long getLengthQueries()         { return latency[0].count(); }
+    public long getAncestorQueries()       { return latency[1].count(); }
+    public long getDequeuedVertices()      { return dequeued.sum(); }
+    public long getScannedEdges()          { return scanned.sum(); }
+    public long getIntersectedAncestors()  { return intersected.sum(); }
+    public long getLengthP50Nanos()        { return latency[0].snapshot().percentile(0.5); }
+    public long getLengthP99Nanos()        { return latency[0].snapshot().percentile(0.99); }
+    public long getLengthP999Nanos()       { return latency[0].snapshot().percentile(0.999); }
+    public long getLengthMaxNanos()        { return latency[0].snapshot().max(); }
+    public long getAncestorP50Nanos()      { return latency[1].snapshot().percentile(0.5); }
+    public long getAncestorP99Nanos()      { return latency[1].snapshot().percentile(0.99); }
+    public long getAncestorP999Nanos()     { return latency[1].snapshot().percentile(0.999); }
+    public long getAncestorMaxNanos()      { return latency[1].snapshot().max(); }
+
+    public String[] getSlowestPairs() {
+        List<SlowPair> pairs = snapshot().slowestPairs();
+        String[] lines = new String[pairs.size()];
+        for (int i = 0; i < lines.length; i++)
+            lines[i] = pairs.get(i).toString();
+        return lines;
+    }
+
+    /* ********** Snapshots ********** */
+
+    public static final class Snapshot {
+        private final LatencySnapshot length;
+        private final LatencySnapshot ancestor;
+        private final long dequeuedVertices;
+        private final long scannedEdges;
+        private final long intersectedAncestors;
+        private final long maxDequeuedVertices;
+        private final long maxScannedEdges;
+        private final List<SlowPair> slowestPairs;
+
+        private Snapshot(LatencySnapshot length, LatencySnapshot ancestor, long dequeuedVertices, long scannedEdges,
+                         long intersectedAncestors, long maxDequeuedVertices, long maxScannedEdges,
+                         List<SlowPair> slowestPairs) {
+            this.length = length;
+            this.ancestor = ancestor;
+            this.dequeuedVertices = dequeuedVertices;
+            this.scannedEdges = scannedEdges;
+            this.intersectedAncestors = intersectedAncestors;
+            this.maxDequeuedVertices = maxDequeuedVertices;
+            this.maxScannedEdges = maxScannedEdges;
+            this.slowestPairs = Collections.unmodifiableList(slowestPairs);
+        }
+
+        public LatencySnapshot latency(Kind kind)  { return kind == Kind.LENGTH ? length : ancestor; }
+        public long queries()                      { return length.count() + ancestor.count(); }
+        public long dequeuedVertices()             { return dequeuedVertices; }
+        public long scannedEdges()                 { return scannedEdges; }
+        public long intersectedAncestors()         { return intersectedAncestors; }
+        public long maxDequeuedVertices()          { return maxDequeuedVertices; }
+        public long maxScannedEdges()              { return maxScannedEdges; }
+        public List<SlowPair> slowestPairs()       { return slowestPairs; }
+
+        @Override
+        public String toString() {
+            long n = Math.max(queries(), 1);
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("queries = %d, per query: dequeued = %.1f (max %d), edges = %.1f (max %d), intersected = %.1f\n",
+                                    queries(), (double) dequeuedVertices / n, maxDequeuedVertices,
+                                    (double) scannedEdges / n, maxScannedEdges, (double) intersectedAncestors / n));
+            sb.append("length   ").append(length).append('\n');
+            sb.append("ancestor ").append(ancestor).append('\n');
+            for (SlowPair pair: slowestPairs)
+                sb.append("  ").append(pair).append('\n');
+            return sb.toString();
+        }
+    }
+
+    public static final class LatencySnapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long max;
+
+        private LatencySnapshot(long[] buckets, long count, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.max = max;
+        }
+
+        public long count() { return count; }
+        public long max()   { return max; }
+
+        // upper bound of the bucket holding the q-th quantile, 0 <= q <= 1; 0 when empty
+        public long percentile(double q) {
+            if (q < 0 || q > 1)
+                throw new IllegalArgumentException("quantile must be in [0, 1]");
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b];
+                if (seen >= rank && seen > 0) return Math.min(Histogram.upperBound(b), max);
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n = %d, p50 = %,d ns, p90 = %,d ns, p99 = %,d ns, p99.9 = %,d ns, max = %,d ns",
+                                 count, percentile(0.5), percentile(0.9), percentile(0.99), percentile(0.999), max);
+        }
+    }
+
+    public static final class SlowPair {
+        private final String nounA;
+        private final String nounB;
+        private final long nanos;
+        private final int dequeuedVertices;
+        private final int scannedEdges;
+        private final int intersectedAncestors;
+
+        private SlowPair(String nounA, String nounB, long nanos, int dequeuedVertices, int scannedEdges,
+                         int intersectedAncestors) {
+            this.nounA = nounA;
+            this.nounB = nounB;
+            this.nanos = nanos;
+            this.dequeuedVertices = dequeuedVertices;
+            this.scannedEdges = scannedEdges;
+            this.intersectedAncestors = intersectedAncestors;
+        }
+
+        public String nounA()             { return nounA; }
+        public String nounB()             { return nounB; }
+        public long nanos()               { return nanos; }
+        // the SAP search behind the query; all 0 when the index or the cache answered it
+        public int dequeuedVertices()     { return dequeuedVertices; }
+        public int scannedEdges()         { return scannedEdges; }
+        public int intersectedAncestors() { return intersectedAncestors; }
+
+        @Override
+        public String toString() {
+            return String.format("%s, %s: %,d ns, dequeued = %d, edges = %d, intersected = %d",
+                                 nounA, nounB, nanos, dequeuedVertices, scannedEdges, intersectedAncestors);
+        }
+    }
+
+    /* ********** Helper Private Classes ********** */
+
+    // log-linear latency histogram: 8 buckets per power of two, so any value is within 12.5%
+    private static final class Histogram {
+        private static final int SUB = 8;
+        private static final int BUCKETS = (64 - 2) * SUB;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void add(long nanos) {
+            counts.incrementAndGet(bucket(nanos));
+            count.increment();
+            raise(max, nanos);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        void clear() {
+            for (int b = 0; b < BUCKETS; b++)
+                counts.set(b, 0);
+            count.reset();
+            max.set(0);
+        }
+
+        LatencySnapshot snapshot() {
+            long[] buckets = new long[BUCKETS];
+            long n = 0;
+            for (int b = 0; b < BUCKETS; b++)
+                n += buckets[b] = counts.get(b);
+            return new LatencySnapshot(buckets, n, max.get());
+        }
+
+        // values below SUB get a bucket each; above, the top 3 bits after the leading one pick it
+        static int bucket(long nanos) {
+            if (nanos < SUB) return (int) Math.max(nanos, 0);
+            int exp = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (exp - 3)) & (SUB - 1);
+            return (exp - 2) * SUB + sub;
+        }
+
+        static long upperBound(int b) {
+            if (b < SUB) return b;
+            int exp = b / SUB + 2;
+            long lower = (long) (SUB + b % SUB) << (exp - 3);
+            return lower + (1L << (exp - 3)) - 1;
+        }
+    }
+
+    // overhead and a sample report: java SAPMetrics synsets.txt hypernyms.txt
+    public static void main(String[] args) {
+        WordNet wordNet = new WordNet(args[0], args[1]);
+        List<String> nouns = new ArrayList<>();
+        for (String noun: wordNet.nouns())
+            nouns.add(noun);
+        int n = 200000;
+        String[] a = new String[n];
+        String[] b = new String[n];
+        Random random = new Random(7);
+        for (int i = 0; i < n; i++) {
+            a[i] = nouns.get(random.nextInt(nouns.size()));
+            b[i] = nouns.get(random.nextInt(nouns.size()));
+        }
+
+        long sum = 0;
+        double[] best = { Double.MAX_VALUE, Double.MAX_VALUE };
+        for (int round = 0; round < 10; round++)
+            for (int enabled = 0; enabled < 2; enabled++) {
+                wordNet.enableMetrics(enabled == 1);
+                long start = System.nanoTime();
+                for (int i = 0; i < n; i++)
+                    sum += wordNet.distance(a[i], b[i]);
+                best[enabled] = Math.min(best[enabled], (double) (System.nanoTime() - start) / n);
+            }
+        StdOut.printf("distance: disabled %.0f ns, enabled %.0f ns (checksum %d)\n", best[0], best[1], sum);
+
+        wordNet.enableMetrics(true);
+        for (int i = 0; i < n; i++)
+            wordNet.sap(a[i], b[i]);
+        StdOut.print(wordNet.metrics().snapshot());
+    }
+}
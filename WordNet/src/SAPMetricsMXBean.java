@@ -0,0 +1,25 @@
+// JMX view of SAPMetrics; register an instance with SAPMetrics.register(name)
+public interface SAPMetricsMXBean {
+    long getLengthQueries();
+    long getAncestorQueries();
+
+    // totals over all recorded queries
+    long getDequeuedVertices();
+    long getScannedEdges();
+    long getIntersectedAncestors();
+
+    // latency percentiles, accurate to 1/8 of a power of two
+    long getLengthP50Nanos();
+    long getLengthP99Nanos();
+    long getLengthP999Nanos();
+    long getLengthMaxNanos();
+    long getAncestorP50Nanos();
+    long getAncestorP99Nanos();
+    long getAncestorP999Nanos();
+    long getAncestorMaxNanos();
+
+    // slowest noun pairs, slowest first, one line each
+    String[] getSlowestPairs();
+
+    void reset();
+}
@@ -0,0 +1,154 @@
+import java.util.Arrays;
+
+// Reusable scratch state for one SAP query at a time: distance arrays, queues and the list of
+// vertices the last query touched, so reset() only clears what was actually visited. A vertex is
+// queued at most once per side between resets, so the queues never wrap and keep every polled
+// vertex; the work counts for SAPMetrics are read back from them, only when metrics are on.
+class SearchContext {
+    static final int UNSEEN = -1;
+
+    final int[] vDist;
+    final int[] wDist;
+    private final int[] vQueue;
+    private final int[] wQueue;
+    private final int[] touched;
+    private int vHead, vTail;
+    private int wHead, wTail;
+    private int touchedCount;
+    private int[] vRank;    // v-queue position of v-labelled vertices, filled by rankV()
+
+    // result of the last query
+    int length = -1;
+    int ancestor = -1;
+
+    SearchContext(int V) {
+        vDist = new int[V];
+        wDist = new int[V];
+        Arrays.fill(vDist, UNSEEN);
+        Arrays.fill(wDist, UNSEEN);
+        vQueue = new int[V];
+        wQueue = new int[V];
+        touched = new int[V];
+    }
+
+    // clear only the vertices visited since the last reset
+    void reset() {
+        for (int i = 0; i < touchedCount; i++) {
+            int x = touched[i];
+            vDist[x] = UNSEEN;
+            wDist[x] = UNSEEN;
+        }
+        touchedCount = 0;
+        vHead = vTail = 0;
+        wHead = wTail = 0;
+        length = -1;
+        ancestor = -1;
+    }
+
+    // clear only the w side, keeping the v labels for another query from the same v sources
+    void resetW() {
+        int kept = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            int x = touched[i];
+            wDist[x] = UNSEEN;
+            if (vDist[x] != UNSEEN) touched[kept++] = x;
+        }
+        touchedCount = kept;
+        wHead = wTail = 0;
+        length = -1;
+        ancestor = -1;
+    }
+
+    // label x on the v side and enqueue it; false if it was already labelled
+    boolean markV(int x, int dist) {
+        if (vDist[x] != UNSEEN) return false;
+        if (wDist[x] == UNSEEN) touched[touchedCount++] = x;
+        vDist[x] = dist;
+        vQueue[vTail++] = x;
+        return true;
+    }
+
+    boolean markW(int x, int dist) {
+        if (wDist[x] != UNSEEN) return false;
+        if (vDist[x] == UNSEEN) touched[touchedCount++] = x;
+        wDist[x] = dist;
+        wQueue[wTail++] = x;
+        return true;
+    }
+
+    int pollV() {
+        return vQueue[vHead++];
+    }
+
+    int pollW() {
+        return wQueue[wHead++];
+    }
+
+    int vSize() {
+        return vTail - vHead;
+    }
+
+    int wSize() {
+        return wTail - wHead;
+    }
+
+    // note each v-labelled vertex's position in the v queue, for vRank(); the array is made on
+    // first use, so only contexts that answer batch queries pay for it
+    void rankV() {
+        if (vRank == null) vRank = new int[vDist.length];
+        for (int i = 0; i < vTail; i++)
+            vRank[vQueue[i]] = i;
+    }
+
+    int vRank(int x) {
+        return vRank[x];
+    }
+
+    // vertices polled from the w queue since the last reset or resetW()
+    int wPolled() {
+        return wHead;
+    }
+
+    // vertices polled from either queue since the last reset
+    int dequeued() {
+        return vHead + wHead;
+    }
+
+    // edges of G followed from the polled vertices, which the search engines scan in full
+    int scanned(CsrDigraph G) {
+        int edges = 0;
+        for (int i = 0; i < vHead; i++)
+            edges += G.outdegree(vQueue[i]);
+        for (int i = 0; i < wHead; i++)
+            edges += G.outdegree(wQueue[i]);
+        return edges;
+    }
+
+    // vertices labelled by both sides; each met the other side once
+    int intersected() {
+        int both = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            int x = touched[i];
+            if (vDist[x] != UNSEEN && wDist[x] != UNSEEN) both++;
+        }
+        return both;
+    }
+
+    // vertices labelled on either side since the last reset
+    int touchedCount() {
+        return touchedCount;
+    }
+
+    int touched(int i) {
+        return touched[i];
+    }
+
+    // record a meeting at x if it beats the best length so far
+    void meet(int x) {
+        int d = vDist[x] + wDist[x];
+        if (length == -1 || d < length) {
+            length = d;
+            ancestor = x;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+// Runs a batch of tasks on an executor and waits for all of them: on interrupt the rest are
+// cancelled, and a task's RuntimeException reaches the caller as it was thrown.
+final class Tasks {
+    private Tasks() { }
+
+    // task(0) .. task(n-1) on the executor; what names the work in the interrupt message
+    static void runAll(ExecutorService executor, int n, IntConsumer task, String what) {
+        List<Future<?>> futures = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            final int index = i;
+            futures.add(executor.submit(() -> task.accept(index)));
+        }
+        try {
+            for (Future<?> f: futures)
+                f.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Future<?> f: futures)
+                f.cancel(true);
+            throw new IllegalStateException("interrupted while " + what, e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
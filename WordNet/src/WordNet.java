@@ -1,15 +1,18 @@
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 
-import edu.princeton.cs.algs4.Bag;
-import edu.princeton.cs.algs4.Digraph;
-import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdOut;
 
+// Every query reads one immutable State, so one instance can answer queries from many threads at
+// once; update() and enableIndex() publish a new State rather than changing the current one
 public class WordNet {
-    private final HashMap<String, Bag<Integer>> nounsToIdBag;
-    private final HashMap<Integer, String> idToSynset;
-    private final Bag<String> allNouns;
-    private final SAP wSap;
+    private volatile State state;
+    private volatile PairCache cache;   // optional, null when disabled
+    private volatile SAPMetrics metrics;   // optional, null when disabled
+    private volatile boolean offHeap;      // keep graphs, postings and labels in direct memory
     
     // constructor takes the name of the two input files; Time: linearithmic (nlogn)
     public WordNet(String synsets, String hypernyms) {
@@ -17,106 +20,456 @@ public class WordNet {
         if (synsets == null || hypernyms == null)
             throw new IllegalArgumentException("synsets or hypernyms is null");
         
-        nounsToIdBag = new HashMap<>();
-        idToSynset = new HashMap<>();
-        allNouns = new Bag<>();
-        
-        int vNum = 0;
-        
-        // Read the file "synsets", record the info in variables 
-        In inSynset = new In(synsets);
-        String line = inSynset.readLine();
-        while (line != null) {
-            String[] lineSplit = line.split(",");
-            int id = Integer.parseInt(lineSplit[0]);
-            String synset = lineSplit[1];
-          
-            String[] bagSplit = synset.split(" ");
-            for (String noun: bagSplit)
-                if (!nounsToIdBag.containsKey(noun)) {
-                    allNouns.add(noun);
-                    Bag<Integer> newIdBag = new Bag<>();
-                    newIdBag.add(id);
-                    nounsToIdBag.put(noun, newIdBag);
+        // Parse both files straight from mapped bytes
+        WordNetLoader loader = new WordNetLoader(synsets, hypernyms);
+        state = new State(new NounIndex(loader.nouns, loader.nounIds, loader.nounCount),
+                          Arrays.copyOf(loader.synsets, loader.synsetCount),
+                          rootedSap(loader.hypernyms), null, loader.hypernyms.reverse());
+    }
+    
+    // rebuild from a snapshot; a mapped one keeps its int tables in the file and the rest off the heap
+    private WordNet(WordNetSnapshot snapshot) {
+        State s = new State(new NounIndex(snapshot.nouns, snapshot.postingStart, snapshot.postings),
+                            snapshot.synsets, rootedSap(snapshot.graph), null, snapshot.graph.reverse());
+        offHeap = snapshot.graph.offsets.offHeap();
+        state = offHeap ? s.toDirect(null) : s;
+    }
+    
+    // load a WordNet written by save(); validates version, checksum and the rooted DAG
+    public static WordNet load(String snapshotFile) {
+        if (snapshotFile == null)
+            throw new IllegalArgumentException("snapshotFile is null");
+        return new WordNet(WordNetSnapshot.read(snapshotFile));
+    }
+    
+    // like load(), but the hypernym graph and noun postings are read in place from the mapped file,
+    // so JVMs mapping the same snapshot share one copy in the page cache; synset and noun strings
+    // are still decoded onto the heap, and later derived tables go to direct memory
+    public static WordNet map(String snapshotFile) {
+        if (snapshotFile == null)
+            throw new IllegalArgumentException("snapshotFile is null");
+        return new WordNet(WordNetSnapshot.map(snapshotFile));
+    }
+    
+    // write the built dictionary, synsets and hypernym graph to a binary snapshot
+    public void save(String snapshotFile) {
+        if (snapshotFile == null)
+            throw new IllegalArgumentException("snapshotFile is null");
+        State s = state;
+        new WordNetSnapshot(s.nouns.keys, s.nouns.postingStart, s.nouns.postings, s.synsets, s.sap.graph())
+            .write(snapshotFile);
+    }
+    
+    /* Check if rooted DAG */
+    private SAP rootedSap(CsrDigraph G) {
+        RootedDagValidator.validate(G);
+        return new SAP(G, true);
+    }
+    
+    // Apply a delta in the file formats: synset lines "id,nouns,gloss" with ids continuing from the
+    // last synset, and hypernym lines "id,hypernym1,hypernym2,..." for new or existing synsets.
+    // Only the synsets below a new edge are checked for cycles and relabelled, and only cached
+    // pairs with a noun in them are dropped. All or nothing: on IllegalArgumentException the
+    // WordNet is unchanged. Queries running meanwhile see either the old or the new WordNet.
+    public synchronized void update(Iterable<String> synsetLines, Iterable<String> hypernymLines) {
+        if (synsetLines == null || hypernymLines == null)
+            throw new IllegalArgumentException("synsetLines or hypernymLines is null");
+        State s = state;
+        int firstNew = s.synsets.length;
+        
+        // new synsets and their noun occurrences
+        ArrayList<String> added = new ArrayList<>();
+        ArrayList<String> nouns = new ArrayList<>();
+        ArrayList<Integer> nounIds = new ArrayList<>();
+        for (String line: synsetLines) {
+            String[] fields = line.split(",");
+            int id = parseId(fields[0]);
+            if (fields.length < 2 || id != firstNew + added.size())
+                throw new IllegalArgumentException("synset line \"" + line + "\" does not continue from id "
+                                                   + (firstNew + added.size()));
+            added.add(fields[1]);
+            for (String noun: fields[1].split(" ")) {
+                nouns.add(noun);
+                nounIds.add(id);
+            }
+        }
+        int V = firstNew + added.size();
+        
+        // new edges, range-checked by withEdges
+        int E = 0;
+        int[] from = new int[16];
+        int[] to = new int[16];
+        for (String line: hypernymLines) {
+            String[] ids = line.split(",");
+            int v = parseId(ids[0]);
+            for (int i = 1; i < ids.length; i++) {
+                if (E == from.length) {
+                    from = Arrays.copyOf(from, 2 * E);
+                    to = Arrays.copyOf(to, 2 * E);
                 }
-                else
-                  nounsToIdBag.get(noun).add(id);
-            idToSynset.put(vNum, synset);
-            vNum++;
-            line = inSynset.readLine();
-        }
-        
-        /* Read the file "hypernyms", map relations between nouns to a graph */
-        Digraph wGraph = new Digraph(vNum);
-        In inHypernyms = new In(hypernyms);
-        line = inHypernyms.readLine();
-        while (line != null) {  
-            String[] lineSplit = line.split(",");
-            int v = Integer.parseInt(lineSplit[0]);
-            for (int i = 1; i < lineSplit.length; i++) {
-                int w = Integer.parseInt(lineSplit[i]);
-                wGraph.addEdge(v, w);
+                from[E] = v;
+                to[E++] = parseId(ids[i]);
             }
-            line = inHypernyms.readLine();
         }
+        CsrDigraph G = s.sap.graph().withEdges(V, from, to, E);
         
-        /* Check if rooted DAG */
-        if (!topological(wGraph))   throw new IllegalArgumentException("Graph is not DAG");
-        wSap = new SAP(wGraph);
-    }
-    
-    // Check if it is rooted DAG
-    private boolean topological(Digraph G) {
-        boolean[] marked = new boolean[G.V()];
-        int root = -1;
-        for (int i = 0; i < G.V(); i++) {
-            marked[i] = false;
-            if (G.outdegree(i) == 0)
-                if (root == -1) root = i;
-                else    return false;
+        // affected: new synsets and every hyponym of an edge source, the synsets whose ancestors changed
+        CsrDigraph children = G.reverse();
+        boolean[] affected = new boolean[V];
+        int[] list = new int[V];
+        int count = 0;
+        for (int v = firstNew; v < V; v++) {
+            affected[v] = true;
+            list[count++] = v;
+        }
+        for (int i = 0; i < E; i++)
+            if (!affected[from[i]]) {
+                affected[from[i]] = true;
+                list[count++] = from[i];
+            }
+        for (int head = 0; head < count; head++) {
+            int v = list[head];
+            for (int e = children.offsets.get(v); e < children.offsets.get(v + 1); e++) {
+                int c = children.targets.get(e);
+                if (!affected[c]) {
+                    affected[c] = true;
+                    list[count++] = c;
+                }
+            }
         }
-        if (root == -1) return false;
+        RootedDagValidator.validateAffected(G, children, affected, list, count, firstNew);
+        
+        // copy-on-write dictionary and synsets; labels are reused outside the affected set
+        int[] ids = new int[nounIds.size()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = nounIds.get(i);
+        NounIndex nounIndex = s.nouns.withNouns(nouns.toArray(new String[ids.length]), ids, ids.length);
+        String[] synsets = Arrays.copyOf(s.synsets, V);
+        for (int v = firstNew; v < V; v++)
+            synsets[v] = added.get(v - firstNew);
+        AncestorIndex index = s.index == null ? null : new AncestorIndex(G, s.index, affected);
+        SAP sap = new SAP(G, true);
+        sap.setMetrics(metrics);
+        State next = new State(nounIndex, synsets, sap, index, children);
+        state = offHeap ? next.toDirect(metrics) : next;
         
-        return checkDAGDFS(G, root, marked);
+        // nouns of the affected synsets, found through synsetNouns; their cached pairs may now be wrong
+        PairCache c = cache;
+        if (c != null) {
+            HashSet<String> stale = new HashSet<>();
+            for (int i = 0; i < count; i++)
+                for (int p = next.synsetNounStart.get(list[i]); p < next.synsetNounStart.get(list[i] + 1); p++)
+                    stale.add(nounIndex.keys[next.synsetNouns.get(p)]);
+            c.invalidate(stale);
+        }
     }
     
-    // DFS function to check DAG
-    private boolean checkDAGDFS(Digraph G, int root, boolean[] marked) {
-        marked[root] = true;
-        for (int ri: G.adj(root)) {
-            if (!marked[ri])    return false;
-            checkDAGDFS(G, ri, marked);
+    private static int parseId(String field) {
+        try {
+            return Integer.parseInt(field.trim());
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad synset id \"" + field + "\"", e);
         }
-        return true;
     }
-
     
     // Return all WordNet nouns
     public Iterable<String> nouns() {
-        return allNouns;
+        return state.nouns.keys();
     }
     
     // Is the word a WordNet noun?
     public boolean isNoun(String word) {
         if (word == null)
             throw new IllegalArgumentException("The word is null");
-        return nounsToIdBag.containsKey(word);
+        return state.nouns.indexOf(word) >= 0;
     }
     
     // Distance between nounA and nounB (defines below); Time: linear
     public int distance(String nounA, String nounB) {
-        if (!isNoun(nounA) || !isNoun(nounB))
-            throw new IllegalArgumentException("nounA or nounB is null");
-        return wSap.length(nounsToIdBag.get(nounA), nounsToIdBag.get(nounB));
+        return SAP.unpackLength(query(SAPMetrics.Kind.LENGTH, nounA, nounB));
     }
     
     // A synset (second field of synsets.txt) that is the common ancestor of nounA and nounB
     // in a shortest ancestral path; Time: linear
     public String sap(String nounA, String nounB) {
-        if (!isNoun(nounA) || !isNoun(nounB))
+        int ansester = SAP.unpackAncestor(query(SAPMetrics.Kind.ANCESTOR, nounA, nounB));
+        return state.synsets[ansester];   // synsets only grow, so any later State knows the id
+    }
+    
+    // put a bounded result cache in front of distance and sap; capacity 0 removes it
+    public void enableCache(int capacity, PairCache.Policy policy) {
+        cache = capacity == 0 ? null : new PairCache(capacity, policy);
+    }
+    
+    // the current cache, e.g. to export its stats(); null when disabled
+    public PairCache cache() {
+        return cache;
+    }
+    
+    // answer distance and sap from precomputed ancestor labels instead of BFS (false drops them)
+    public synchronized void enableIndex(boolean enabled) {
+        State s = state;
+        AncestorIndex index = enabled ? new AncestorIndex(s.sap.graph()) : null;
+        state = new State(s, offHeap && index != null ? index.toDirect() : index);
+    }
+    
+    // move the hypernym graph, noun postings and ancestor labels into direct memory, off the Java
+    // heap (false moves them back); later update() and enableIndex() calls keep them there
+    public synchronized void enableOffHeap(boolean enabled) {
+        offHeap = enabled;
+        state = enabled ? state.toDirect(metrics) : state.toHeap(metrics);
+    }
+    
+    // record search work, latencies and the slowest noun pairs (false stops recording)
+    public synchronized void enableMetrics(boolean enabled) {
+        SAPMetrics m = enabled ? new SAPMetrics() : null;
+        state.sap.setMetrics(m);
+        metrics = m;
+    }
+    
+    // the current metrics, e.g. for snapshot() or register(); null when disabled
+    public SAPMetrics metrics() {
+        return metrics;
+    }
+    
+    // packed length and ancestor of the two nouns' synsets, timed into the metrics however it is
+    // answered: cache, index or search
+    private long query(SAPMetrics.Kind kind, String nounA, String nounB) {
+        SAPMetrics m = metrics;
+        if (m == null) return lookup(nounA, nounB, null);
+        long begin = System.nanoTime();
+        boolean[] searched = new boolean[1];
+        long result = lookup(nounA, nounB, searched);
+        long nanos = System.nanoTime() - begin;
+        m.record(kind, nanos);
+        m.pair(nounA, nounB, nanos, searched[0]);
+        return result;
+    }
+    
+    // the query through the cache if there is one; searched[0], if given, tells whether a SAP
+    // search ran. The cache generation is read before the State, so a result from a State that
+    // update() replaced meanwhile is not cached
+    private long lookup(String nounA, String nounB, boolean[] searched) {
+        PairCache c = cache;
+        long generation = c == null ? 0 : c.generation();
+        State s = state;
+        int a = nounKey(s, nounA);
+        int b = nounKey(s, nounB);
+        if (c != null) {
+            long cached = c.get(nounA, nounB);
+            if (cached != PairCache.MISSING) return cached;
+        }
+        IntStore ids = s.nouns.postings;
+        IntStore start = s.nouns.postingStart;
+        int aFrom = start.get(a), aTo = start.get(a + 1);
+        int bFrom = start.get(b), bTo = start.get(b + 1);
+        long result;
+        if (s.index != null)
+            result = s.index.lengthAndAncestor(ids, aFrom, aTo, ids, bFrom, bTo);
+        else {
+            result = s.sap.lengthAndAncestor(null, ids, aFrom, aTo, ids, bFrom, bTo);
+            if (searched != null) searched[0] = true;
+        }
+        if (c != null) c.put(nounA, nounB, result, generation);
+        return result;
+    }
+    
+    // the k nouns closest to noun by SAP distance, closest first and ties in noun order; noun itself
+    // is left out. Expands from noun's synsets up through hypernyms and then down through hyponyms,
+    // one distance at a time, and stops after the first distance at which k nouns have been seen
+    public List<String> nearest(String noun, int k) {
+        if (k < 0)
+            throw new IllegalArgumentException("k is negative");
+        final State s = state;
+        final int self = nounKey(s, noun);
+        if (k == 0) return new ArrayList<>();
+        
+        final HashSet<Integer> seen = new HashSet<>();
+        final ArrayList<Long> found = new ArrayList<>();   // (distance << 32) | noun key, sorts by both
+        s.sap.outward(s.nouns.postings, s.nouns.postingStart.get(self), s.nouns.postingStart.get(self + 1),
+                      s.hyponyms, (synset, dist) -> {
+            for (int p = s.synsetNounStart.get(synset); p < s.synsetNounStart.get(synset + 1); p++) {
+                int key = s.synsetNouns.get(p);
+                if (key != self && seen.add(key))
+                    found.add(((long) dist << 32) | key);
+            }
+            return found.size() < k;
+        });
+        Collections.sort(found);
+        
+        List<String> nearest = new ArrayList<>(Math.min(k, found.size()));
+        for (int i = 0; i < Math.min(k, found.size()); i++)
+            nearest.add(s.nouns.keys[(int) (long) found.get(i)]);
+        return nearest;
+    }
+    
+    // packed lengths and ancestors from source to targets[from .. to-1], into result[0 .. to-from-1].
+    // Goes through the cache and the metrics as query(kind, a, b) does, each pair an ANCESTOR query.
+    // Without an index, the pairs the cache misses share one search of source's synsets (a single
+    // miss gets the bidirectional search instead); each is timed at an equal share of that search
+    void query(String source, String[] targets, int from, int to, long[] result) {
+        PairCache c = cache;
+        long generation = c == null ? 0 : c.generation();
+        SAPMetrics m = metrics;
+        State s = state;
+        int a = nounKey(s, source);
+        int n = to - from;
+        IntStore ids = s.nouns.postings;
+        IntStore start = s.nouns.postingStart;
+        int aFrom = start.get(a), aTo = start.get(a + 1);
+        int[] wFrom = new int[n];
+        int[] wTo = new int[n];
+        for (int i = 0; i < n; i++) {
+            int b = nounKey(s, targets[from + i]);
+            wFrom[i] = start.get(b);
+            wTo[i] = start.get(b + 1);
+        }
+        
+        // cached pairs and index lookups are answered and timed one at a time
+        int[] miss = new int[n];   // result positions left for a search
+        int misses = 0;
+        for (int i = 0; i < n; i++) {
+            long begin = m == null ? 0 : System.nanoTime();
+            long cached = c == null ? PairCache.MISSING : c.get(source, targets[from + i]);
+            if (cached != PairCache.MISSING)
+                result[i] = cached;
+            else if (s.index != null) {
+                result[i] = s.index.lengthAndAncestor(ids, aFrom, aTo, ids, wFrom[i], wTo[i]);
+                if (c != null) c.put(source, targets[from + i], result[i], generation);
+            }
+            else {
+                miss[misses++] = i;
+                continue;
+            }
+            if (m != null) {
+                long nanos = System.nanoTime() - begin;
+                m.record(SAPMetrics.Kind.ANCESTOR, nanos);
+                m.pair(source, targets[from + i], nanos, false);
+            }
+        }
+        if (misses == 0) return;
+        
+        long begin = m == null ? 0 : System.nanoTime();
+        if (misses == 1)
+            result[miss[0]] = s.sap.lengthAndAncestor(null, ids, aFrom, aTo, ids, wFrom[miss[0]], wTo[miss[0]]);
+        else {
+            int[] missFrom = new int[misses];
+            int[] missTo = new int[misses];
+            for (int k = 0; k < misses; k++) {
+                missFrom[k] = wFrom[miss[k]];
+                missTo[k] = wTo[miss[k]];
+            }
+            long[] found = new long[misses];
+            s.sap.lengthsAndAncestors(ids, aFrom, aTo, ids, missFrom, missTo, misses, found);
+            for (int k = 0; k < misses; k++)
+                result[miss[k]] = found[k];
+        }
+        long share = m == null ? 0 : (System.nanoTime() - begin) / misses;
+        for (int k = 0; k < misses; k++) {
+            String target = targets[from + miss[k]];
+            if (c != null) c.put(source, target, result[miss[k]], generation);
+            if (m != null) {
+                m.record(SAPMetrics.Kind.ANCESTOR, share);
+                m.pair(source, target, share, true);
+            }
+        }
+    }
+    
+    // second field of synsets.txt for a synset id from a query result
+    String synset(int id) {
+        return state.synsets[id];
+    }
+    
+    // all ancestors of the noun's synsets with their distances, for batch evaluation
+    AncestorVector ancestors(String noun) {
+        State s = state;
+        int k = nounKey(s, noun);
+        return s.sap.ancestors(s.nouns.postings, s.nouns.postingStart.get(k), s.nouns.postingStart.get(k + 1));
+    }
+    
+    // position of the noun in the dictionary
+    private static int nounKey(State s, String noun) {
+        if (noun == null)
             throw new IllegalArgumentException("nounA or nounB is null");
-         int ansester = wSap.ancestor(nounsToIdBag.get(nounA), nounsToIdBag.get(nounB));  
-        return idToSynset.get(ansester);
+        int key = s.nouns.indexOf(noun);
+        if (key < 0)
+            throw new IllegalArgumentException(noun + " is not a WordNet noun");
+        return key;
+    }
+    
+    // everything a query reads, swapped as a whole
+    private static final class State {
+        final NounIndex nouns;       // sorted nouns -> ranges of synset ids
+        final String[] synsets;      // synset id -> second field of synsets.txt
+        final SAP sap;
+        final AncestorIndex index;   // optional ancestor labels, null when disabled
+        final CsrDigraph hyponyms;   // the hypernym graph reversed, for nearest()
+        final IntStore synsetNounStart; // noun keys of synset v: synsetNouns[synsetNounStart[v] .. [v+1]-1]
+        final IntStore synsetNouns;
+        
+        State(NounIndex nouns, String[] synsets, SAP sap, AncestorIndex index, CsrDigraph hyponyms) {
+            this.nouns = nouns;
+            this.synsets = synsets;
+            this.sap = sap;
+            this.index = index;
+            this.hyponyms = hyponyms;
+            int[] start = new int[synsets.length + 1];
+            for (int p = 0; p < nouns.postings.length(); p++)
+                start[nouns.postings.get(p) + 1]++;
+            for (int v = 0; v < synsets.length; v++)
+                start[v + 1] += start[v];
+            int[] keys = new int[nouns.postings.length()];
+            int[] next = Arrays.copyOf(start, synsets.length);
+            for (int k = 0; k < nouns.size(); k++)
+                for (int p = nouns.postingStart.get(k); p < nouns.postingStart.get(k + 1); p++)
+                    keys[next[nouns.postings.get(p)]++] = k;
+            synsetNounStart = new IntStore(start);
+            synsetNouns = new IntStore(keys);
+        }
+        
+        private State(NounIndex nouns, String[] synsets, SAP sap, AncestorIndex index, CsrDigraph hyponyms,
+                      IntStore synsetNounStart, IntStore synsetNouns) {
+            this.nouns = nouns;
+            this.synsets = synsets;
+            this.sap = sap;
+            this.index = index;
+            this.hyponyms = hyponyms;
+            this.synsetNounStart = synsetNounStart;
+            this.synsetNouns = synsetNouns;
+        }
+        
+        // the same State with another index
+        State(State s, AncestorIndex index) {
+            nouns = s.nouns;
+            synsets = s.synsets;
+            sap = s.sap;
+            this.index = index;
+            hyponyms = s.hyponyms;
+            synsetNounStart = s.synsetNounStart;
+            synsetNouns = s.synsetNouns;
+        }
+        
+        // every int table in direct memory; the strings and the noun lookup table stay on the heap
+        State toDirect(SAPMetrics metrics) {
+            return new State(nouns.toDirect(), synsets, sapOver(sap.graph().toDirect(), metrics),
+                             index == null ? null : index.toDirect(), hyponyms.toDirect(),
+                             synsetNounStart.toDirect(), synsetNouns.toDirect());
+        }
+        
+        // every int table copied back onto the heap
+        State toHeap(SAPMetrics metrics) {
+            return new State(nouns.toHeap(), synsets, sapOver(sap.graph().toHeap(), metrics),
+                             index == null ? null : index.toHeap(), hyponyms.toHeap(),
+                             synsetNounStart.toHeap(), synsetNouns.toHeap());
+        }
+        
+        private SAP sapOver(CsrDigraph G, SAPMetrics metrics) {
+            if (G == sap.graph()) return sap;
+            SAP moved = new SAP(G, true);
+            moved.setMetrics(metrics);
+            return moved;
+        }
     }
 
     // do unit testing of this class
@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import edu.princeton.cs.algs4.Digraph;
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdOut;
+
+// Streaming parser for the synsets and hypernyms files: maps each file into memory and scans the
+// bytes for commas, spaces and newlines, parsing ids in place without String.split or boxing.
+// Gives exactly what WordNet's line-by-line In parser gave: same synsets, nouns and edge order.
+class WordNetLoader {
+    int synsetCount;       // synsets[0 .. synsetCount-1], indexed by line number
+    String[] synsets;      // second field of each line (the nouns, space separated)
+    int nounCount;         // noun occurrences, in file order: nouns[k] belongs to synset nounIds[k]
+    String[] nouns;
+    int[] nounIds;
+    CsrDigraph hypernyms;  // edges from a synset to its hypernyms
+
+    private byte[] scratch = new byte[256];
+    private int[] edgeFrom;    // growing edge list while the hypernyms file is read
+    private int[] edgeTo;
+    private int edgeCount;
+
+    WordNetLoader(String synsetsFile, String hypernymsFile) {
+        synsets = new String[1024];
+        nouns = new String[1024];
+        nounIds = new int[1024];
+        readSynsets(map(synsetsFile));
+        readHypernyms(map(hypernymsFile));
+    }
+
+    private static MappedByteBuffer map(String file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("could not open " + file, e);
+        }
+    }
+
+    // id,noun1 noun2 ...,gloss or id,noun1 noun2 ...; ids are checked against the line count
+    // once it is known, and any malformed line is an IllegalArgumentException naming it
+    private void readSynsets(MappedByteBuffer buf) {
+        int end = buf.limit();
+        int pos = 0;
+        int maxId = -1, maxIdLine = 0;
+        while (pos < end) {
+            int line = synsetCount + 1;
+            int id = 0;
+            int digits = 0;
+            byte b;
+            while (pos < end && (b = buf.get(pos)) != ',' && b != '\n' && b != '\r') {
+                if (b < '0' || b > '9' || id > (Integer.MAX_VALUE - 9) / 10)
+                    throw new IllegalArgumentException("synsets line " + line + ": bad synset id");
+                id = 10 * id + (b - '0');
+                digits++;
+                pos++;
+            }
+            if (digits == 0 || pos == end || buf.get(pos) != ',')
+                throw new IllegalArgumentException("synsets line " + line + ": expected id,nouns");
+            if (id > maxId) {
+                maxId = id;
+                maxIdLine = line;
+            }
+
+            int start = ++pos;
+            while (pos < end && (b = buf.get(pos)) != ',' && b != '\n' && b != '\r')
+                pos++;
+            String synset = decode(buf, start, pos);
+
+            if (synsetCount == synsets.length)
+                synsets = Arrays.copyOf(synsets, 2 * synsetCount);
+            synsets[synsetCount++] = synset;
+
+            // same pieces as synset.split(" "), which drops trailing empty strings
+            int last = synset.length();
+            while (last > 0 && synset.charAt(last - 1) == ' ')
+                last--;
+            int from = 0;
+            while (from <= last) {
+                int space = synset.indexOf(' ', from);
+                if (space == -1 || space > last) space = last;
+                addNoun(synset.substring(from, space), id);
+                from = space + 1;
+            }
+
+            while (pos < end && buf.get(pos) != '\n')   // skip the gloss, if any
+                pos++;
+            pos++;
+        }
+        if (maxId >= synsetCount)
+            throw new IllegalArgumentException("synsets line " + maxIdLine + ": id " + maxId
+                                               + " is not below the " + synsetCount + " synsets");
+    }
+
+    // v,w1,w2,...; every field must be an id below synsetCount, or the line is rejected by number
+    private void readHypernyms(MappedByteBuffer buf) {
+        edgeFrom = new int[Math.max(synsetCount, 1)];
+        edgeTo = new int[Math.max(synsetCount, 1)];
+        int end = buf.limit();
+        int pos = 0;
+        int line = 0;
+        while (pos < end) {
+            line++;
+            int v = -1;
+            int value = 0;
+            int digits = 0;
+            byte b;
+            while (pos < end && (b = buf.get(pos++)) != '\n') {
+                if (b >= '0' && b <= '9') {
+                    value = 10 * value + (b - '0');
+                    if (value >= synsetCount)
+                        throw new IllegalArgumentException("hypernyms line " + line + ": id is not below the "
+                                                           + synsetCount + " synsets");
+                    digits++;
+                }
+                else if (b == ',' && digits > 0) {
+                    if (v == -1) v = value;
+                    else addEdge(v, value);
+                    value = 0;
+                    digits = 0;
+                }
+                else if (b == '\r' && (pos == end || buf.get(pos) == '\n'))
+                    continue;
+                else
+                    throw new IllegalArgumentException("hypernyms line " + line + ": unexpected '"
+                                                       + (char) (b & 0xFF) + "'");
+            }
+            // a trailing comma is allowed, as String.split drops the empty field after it
+            if (digits > 0) {
+                if (v == -1) v = value;
+                else addEdge(v, value);
+            }
+            if (v == -1)
+                throw new IllegalArgumentException("hypernyms line " + line + ": no synset id");
+        }
+
+        // Digraph.adj returns edges newest first, so feed the CSR builder in reverse to keep that order
+        int[] from = new int[edgeCount];
+        int[] to = new int[edgeCount];
+        for (int i = 0; i < edgeCount; i++) {
+            from[i] = edgeFrom[edgeCount - 1 - i];
+            to[i] = edgeTo[edgeCount - 1 - i];
+        }
+        hypernyms = new CsrDigraph(synsetCount, from, to, edgeCount);
+        edgeFrom = null;
+        edgeTo = null;
+    }
+
+    private void addEdge(int v, int w) {
+        if (edgeCount == edgeFrom.length) {
+            edgeFrom = Arrays.copyOf(edgeFrom, 2 * edgeCount);
+            edgeTo = Arrays.copyOf(edgeTo, 2 * edgeCount);
+        }
+        edgeFrom[edgeCount] = v;
+        edgeTo[edgeCount++] = w;
+    }
+
+    private void addNoun(String noun, int id) {
+        if (nounCount == nouns.length) {
+            nouns = Arrays.copyOf(nouns, 2 * nounCount);
+            nounIds = Arrays.copyOf(nounIds, 2 * nounCount);
+        }
+        nouns[nounCount] = noun;
+        nounIds[nounCount++] = id;
+    }
+
+    private String decode(MappedByteBuffer buf, int start, int end) {
+        int length = end - start;
+        if (length > scratch.length)
+            scratch = new byte[Math.max(length, 2 * scratch.length)];
+        for (int i = 0; i < length; i++)
+            scratch[i] = buf.get(start + i);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // compare with the In-based parse: java WordNetLoader synsets.txt hypernyms.txt
+    public static void main(String[] args) {
+        long start = System.nanoTime();
+        WordNetLoader loader = new WordNetLoader(args[0], args[1]);
+        double loaderMs = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        String[] lines = new In(args[0]).readAllLines();
+        int k = 0;
+        for (int i = 0; i < lines.length; i++) {
+            String[] fields = lines[i].split(",");
+            if (!fields[1].equals(loader.synsets[i]))
+                throw new IllegalStateException("synset " + i + " differs");
+            for (String noun: fields[1].split(" ")) {
+                if (!noun.equals(loader.nouns[k]) || Integer.parseInt(fields[0]) != loader.nounIds[k])
+                    throw new IllegalStateException("noun " + k + " differs");
+                k++;
+            }
+        }
+        if (lines.length != loader.synsetCount || k != loader.nounCount)
+            throw new IllegalStateException("counts differ");
+        Digraph G = new Digraph(lines.length);
+        In in = new In(args[1]);
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            String[] ids = line.split(",");
+            for (int i = 1; i < ids.length; i++)
+                G.addEdge(Integer.parseInt(ids[0]), Integer.parseInt(ids[i]));
+        }
+        double inMs = (System.nanoTime() - start) / 1e6;
+        CsrDigraph expected = new CsrDigraph(G);
+        if (!expected.offsets.contentEquals(loader.hypernyms.offsets)
+            || !expected.targets.contentEquals(loader.hypernyms.targets))
+            throw new IllegalStateException("hypernym graphs differ");
+
+        StdOut.printf("identical: %d synsets, %d nouns, %d edges\n", loader.synsetCount, loader.nounCount, G.E());
+        StdOut.printf("mapped loader %.1f ms, In + split %.1f ms\n", loaderMs, inMs);
+    }
+}
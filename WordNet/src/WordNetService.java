@@ -0,0 +1,117 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.princeton.cs.algs4.StdOut;
+
+// Concurrent query facade over one shared WordNet: single queries run on the caller's thread,
+// batches are split across a fixed worker pool; every thread searches with its own SearchContext
+public class WordNetService implements AutoCloseable {
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final WordNet wordnet;
+    private final ExecutorService pool;
+    private final int threads;
+
+    public WordNetService(WordNet wordnet, int threads) {
+        if (wordnet == null)
+            throw new IllegalArgumentException("wordnet is null");
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive");
+        this.wordnet = wordnet;
+        this.threads = threads;
+        this.pool = Executors.newFixedThreadPool(threads);
+    }
+
+    public int distance(String nounA, String nounB) {
+        return wordnet.distance(nounA, nounB);
+    }
+
+    public String sap(String nounA, String nounB) {
+        return wordnet.sap(nounA, nounB);
+    }
+
+    // distances[i] = distance(nounsA[i], nounsB[i]), computed in parallel
+    public int[] distances(final String[] nounsA, final String[] nounsB) {
+        checkPairs(nounsA, nounsB);
+        final int[] result = new int[nounsA.length];
+        runChunked(nounsA.length, (from, to) -> {
+            for (int i = from; i < to; i++)
+                result[i] = wordnet.distance(nounsA[i], nounsB[i]);
+        });
+        return result;
+    }
+
+    // saps[i] = sap(nounsA[i], nounsB[i]), computed in parallel
+    public String[] saps(final String[] nounsA, final String[] nounsB) {
+        checkPairs(nounsA, nounsB);
+        final String[] result = new String[nounsA.length];
+        runChunked(nounsA.length, (from, to) -> {
+            for (int i = from; i < to; i++)
+                result[i] = wordnet.sap(nounsA[i], nounsB[i]);
+        });
+        return result;
+    }
+
+    public int threads() {
+        return threads;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /* ********** Helper Private Functions ********** */
+
+    private interface RangeTask {
+        void run(int from, int to);
+    }
+
+    private void checkPairs(String[] nounsA, String[] nounsB) {
+        if (nounsA == null || nounsB == null)
+            throw new IllegalArgumentException("nounsA or nounsB is null");
+        if (nounsA.length != nounsB.length)
+            throw new IllegalArgumentException("nounsA and nounsB differ in length");
+    }
+
+    // split [0, n) into chunks, run them on the pool and wait for all of them
+    private void runChunked(int n, final RangeTask task) {
+        final int chunks = Math.max(1, Math.min(n, threads * CHUNKS_PER_THREAD));
+        Tasks.runAll(pool, chunks, k -> task.run((int) ((long) n * k / chunks), (int) ((long) n * (k + 1) / chunks)),
+                     "waiting for queries");
+    }
+
+    // throughput scaling: java WordNetService synsets.txt hypernyms.txt [queries] [maxThreads]
+    public static void main(String[] args) {
+        WordNet wordnet = new WordNet(args[0], args[1]);
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        List<String> nouns = new ArrayList<>();
+        for (String noun: wordnet.nouns())
+            nouns.add(noun);
+        Random random = new Random(42);
+        String[] nounsA = new String[queries];
+        String[] nounsB = new String[queries];
+        for (int i = 0; i < queries; i++) {
+            nounsA[i] = nouns.get(random.nextInt(nouns.size()));
+            nounsB[i] = nouns.get(random.nextInt(nouns.size()));
+        }
+
+        double base = 0;
+        for (int t = 1; t <= maxThreads; t = (t < maxThreads && 2 * t > maxThreads) ? maxThreads : 2 * t) {
+            try (WordNetService service = new WordNetService(wordnet, t)) {
+                service.distances(nounsA, nounsB);   // warm up
+                long start = System.nanoTime();
+                service.distances(nounsA, nounsB);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                double qps = queries / seconds;
+                if (t == 1) base = qps;
+                StdOut.printf("threads = %2d: %,12.0f queries/s (%.2fx)\n", t, qps, qps / base);
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import edu.princeton.cs.algs4.StdOut;
+
+// Binary snapshot of a fully built WordNet, loaded back through a memory-mapped file: read()
+// copies everything onto the heap, map() leaves the int tables in the mapping and reads them there.
+// Layout: magic, version and the checksum big-endian, everything else little-endian, the order
+// x86 and ARM read natively, so the mapped tables are read without byte swaps:
+//   int magic, int version, int V, int E, int nounCount, int postingCount
+//   int[V+1] offsets, int[E] targets                      hypernym graph in CSR form
+//   int[nounCount+1] postingStart, int[postingCount] postings   synset ids of each noun
+//   strings nouns, strings synsets
+//   long CRC32 of every byte before it
+// where strings = int[count+1] byte offsets into the UTF-8 bytes that follow them.
+class WordNetSnapshot {
+    static final int MAGIC = 0x574E4554;   // "WNET"
+    static final int VERSION = 3;   // 2: noun dictionary sorted, as in NounIndex; 3: little-endian tables
+    private static final int HEADER_INTS = 6;
+
+    final String[] nouns;          // noun dictionary, sorted
+    final IntStore postingStart;   // synset ids of nouns[k]: postings[postingStart[k] .. postingStart[k+1]-1]
+    final IntStore postings;
+    final String[] synsets;        // indexed by synset id
+    final CsrDigraph graph;
+
+    WordNetSnapshot(String[] nouns, IntStore postingStart, IntStore postings, String[] synsets, CsrDigraph graph) {
+        this.nouns = nouns;
+        this.postingStart = postingStart;
+        this.postings = postings;
+        this.synsets = synsets;
+        this.graph = graph;
+    }
+
+    void write(String file) {
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileOut = new FileOutputStream(file);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOut, crc), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeInt(out, graph.V());
+            writeInt(out, graph.E());
+            writeInt(out, nouns.length);
+            writeInt(out, postings.length());
+            writeInts(out, graph.offsets);
+            writeInts(out, graph.targets);
+            writeInts(out, postingStart);
+            writeInts(out, postings);
+            writeStrings(out, nouns);
+            writeStrings(out, synsets);
+            out.flush();
+            new DataOutputStream(fileOut).writeLong(crc.getValue());
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("could not write " + file, e);
+        }
+    }
+
+    // every table copied onto the heap
+    static WordNetSnapshot read(String file) {
+        ByteBuffer buf = open(file);
+        int V = buf.getInt();
+        int E = buf.getInt();
+        int nounCount = buf.getInt();
+        int postingCount = buf.getInt();
+        checkCounts(file, buf, V, E, nounCount, postingCount);
+        int[] offsets = readInts(buf, V + 1);
+        int[] targets = readInts(buf, E);
+        int[] postingStart = readInts(buf, nounCount + 1);
+        int[] postings = readInts(buf, postingCount);
+        checkPostings(file, new IntStore(postings), V);
+        String[] nouns = readStrings(file, buf, nounCount);
+        String[] synsets = readStrings(file, buf, V);
+        return new WordNetSnapshot(nouns, new IntStore(postingStart), new IntStore(postings), synsets,
+                                   new CsrDigraph(offsets, targets));
+    }
+
+    // graph and postings read in place from the mapping; the pages are shared with every other
+    // process mapping the file. Strings are decoded onto the heap
+    static WordNetSnapshot map(String file) {
+        ByteBuffer buf = open(file);
+        int V = buf.getInt();
+        int E = buf.getInt();
+        int nounCount = buf.getInt();
+        int postingCount = buf.getInt();
+        checkCounts(file, buf, V, E, nounCount, postingCount);
+        IntStore offsets = mapInts(buf, V + 1);
+        IntStore targets = mapInts(buf, E);
+        IntStore postingStart = mapInts(buf, nounCount + 1);
+        IntStore postings = mapInts(buf, postingCount);
+        checkPostings(file, postings, V);
+        String[] nouns = readStrings(file, buf, nounCount);
+        String[] synsets = readStrings(file, buf, V);
+        return new WordNetSnapshot(nouns, postingStart, postings, synsets, new CsrDigraph(offsets, targets));
+    }
+
+    // the whole file mapped, with magic, version and checksum verified; positioned after them
+    private static ByteBuffer open(String file) {
+        ByteBuffer buf;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE || channel.size() < 4 * HEADER_INTS + 8)
+                throw new IllegalArgumentException(file + " is not a WordNet snapshot");
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("could not open " + file, e);
+        }
+
+        if (buf.getInt(0) != MAGIC)
+            throw new IllegalArgumentException(file + " is not a WordNet snapshot");
+        if (buf.getInt(4) != VERSION)
+            throw new IllegalArgumentException(file + " has snapshot version " + buf.getInt(4) + ", expected " + VERSION);
+        int bodyEnd = buf.limit() - 8;
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buf.duplicate();
+        body.limit(bodyEnd);
+        crc.update(body);
+        if (crc.getValue() != buf.getLong(bodyEnd))
+            throw new IllegalArgumentException(file + " fails its checksum");
+
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        buf.position(8);
+        return buf;
+    }
+
+    /* ********** Helper Private Functions ********** */
+
+    // the header counts must be non-negative and their int tables fit in what is left of the file;
+    // the checksum only shows the file is as written, not that it was written from a valid WordNet
+    private static void checkCounts(String file, ByteBuffer buf, int V, int E, int nounCount, int postingCount) {
+        if (V < 0 || E < 0 || nounCount < 0 || postingCount < 0
+            || 4L * ((long) V + 1 + E + nounCount + 1 + postingCount) > buf.limit() - 8 - buf.position())
+            throw new IllegalArgumentException(file + " has bad table sizes");
+    }
+
+    // every posting a synset id in 0 .. V-1; the posting starts are checked by NounIndex, the graph by CsrDigraph
+    private static void checkPostings(String file, IntStore postings, int V) {
+        for (int i = 0; i < postings.length(); i++)
+            if (postings.get(i) < 0 || postings.get(i) >= V)
+                throw new IllegalArgumentException(file + ": posting " + i + " is synset " + postings.get(i)
+                                                   + ", not in 0 .. " + (V - 1));
+    }
+
+    // little-endian, where DataOutputStream writes big-endian
+    private static void writeInt(DataOutputStream out, int x) throws IOException {
+        out.writeInt(Integer.reverseBytes(x));
+    }
+
+    private static void writeInts(DataOutputStream out, IntStore a) throws IOException {
+        for (int i = 0; i < a.length(); i++)
+            writeInt(out, a.get(i));
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        byte[][] bytes = new byte[strings.length][];
+        int offset = 0;
+        writeInt(out, offset);
+        for (int i = 0; i < strings.length; i++) {
+            bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            offset += bytes[i].length;
+            writeInt(out, offset);
+        }
+        for (byte[] b: bytes)
+            out.write(b);
+    }
+
+    private static int[] readInts(ByteBuffer buf, int n) {
+        int[] a = new int[n];
+        buf.asIntBuffer().get(a);
+        buf.position(buf.position() + 4 * n);
+        return a;
+    }
+
+    private static IntStore mapInts(ByteBuffer buf, int n) {
+        IntBuffer ints = buf.asIntBuffer();
+        ints.limit(n);
+        buf.position(buf.position() + 4 * n);
+        return new IntStore(ints);
+    }
+
+    // n strings after their offset table; the offsets must start at 0, never decrease and end
+    // within the file, as the checksum does not show they were written that way
+    private static String[] readStrings(String file, ByteBuffer buf, int n) {
+        if (4L * (n + 1) > buf.limit() - 8 - buf.position())
+            throw new IllegalArgumentException(file + " has bad string offsets");
+        int[] start = readInts(buf, n + 1);
+        boolean valid = start[0] == 0 && start[n] <= buf.limit() - 8 - buf.position();
+        for (int i = 0; i < n && valid; i++)
+            valid = start[i] <= start[i + 1];
+        if (!valid)
+            throw new IllegalArgumentException(file + " has bad string offsets");
+        byte[] bytes = new byte[start[n]];
+        buf.get(bytes);
+        String[] strings = new String[n];
+        for (int i = 0; i < n; i++)
+            strings[i] = new String(bytes, start[i], start[i + 1] - start[i], StandardCharsets.UTF_8);
+        return strings;
+    }
+
+    // cold start, then heap use and query speed with the tables on the heap, mapped from the
+    // snapshot and in direct memory: java WordNetSnapshot synsets.txt hypernyms.txt snapshot.bin
+    public static void main(String[] args) {
+        long start = System.nanoTime();
+        WordNet fromText = new WordNet(args[0], args[1]);
+        double textMs = (System.nanoTime() - start) / 1e6;
+        fromText.save(args[2]);
+        ArrayList<String> nouns = new ArrayList<>();
+        for (String noun: fromText.nouns())
+            nouns.add(noun);
+        fromText = null;
+
+        Random random = new Random(5);
+        String[] as = new String[20000];
+        String[] bs = new String[as.length];
+        for (int q = 0; q < as.length; q++) {
+            as[q] = nouns.get(random.nextInt(nouns.size()));
+            bs[q] = nouns.get(random.nextInt(nouns.size()));
+        }
+        nouns = null;
+
+        StdOut.printf("text files %.1f ms\n", textMs);
+        long sum = 0;
+        for (String mode: new String[] { "heap", "mapped", "direct" }) {
+            long base = usedHeap();
+            start = System.nanoTime();
+            WordNet wordNet = mode.equals("mapped") ? WordNet.map(args[2]) : WordNet.load(args[2]);
+            if (mode.equals("direct")) wordNet.enableOffHeap(true);
+            double loadMs = (System.nanoTime() - start) / 1e6;
+            long heapBytes = usedHeap() - base;
+
+            for (int q = 0; q < as.length; q++)   // warm up
+                sum += wordNet.distance(as[q], bs[q]);
+            start = System.nanoTime();
+            for (int q = 0; q < as.length; q++)
+                sum -= wordNet.distance(as[q], bs[q]);
+            double queryUs = (System.nanoTime() - start) / 1e3 / as.length;
+            StdOut.printf("%-6s snapshot %7.1f ms, heap %,12d bytes, distance %.2f us\n",
+                          mode, loadMs, heapBytes, queryUs);
+            wordNet = null;
+        }
+        if (sum != 0) throw new IllegalStateException("modes disagree");
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,212 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+// Streams noun pairs through one shared WordNet. The caller's thread reads the input a window at
+// a time and hands windows to a fixed worker pool, never more than a few windows ahead of the
+// results it has delivered, so memory stays bounded however long the input is. Within a window,
+// pairs with the same first noun share one upward search of that noun. Results are delivered on
+// the caller's thread in input order, with the same distance and ancestor as WordNet.sap() gives
+// however the pairs were grouped.
+public class WordNetStream implements AutoCloseable {
+    public static final int DEFAULT_WINDOW = 4096;
+    private static final int WINDOWS_PER_THREAD = 2;   // in flight, for backpressure
+    private static final int SHARED_SEARCH_MIN = 4;    // smaller groups run one search per pair
+
+    // receives each pair's answer; index counts pairs from 0 in input order
+    public interface ResultListener {
+        void result(long index, String nounA, String nounB, int distance, String sap);
+    }
+
+    private final WordNet wordnet;
+    private final ExecutorService pool;
+    private final int threads;
+    private final int window;
+
+    public WordNetStream(WordNet wordnet, int threads) {
+        this(wordnet, threads, DEFAULT_WINDOW);
+    }
+
+    // window: pairs read, grouped and computed together
+    public WordNetStream(WordNet wordnet, int threads, int window) {
+        if (wordnet == null)
+            throw new IllegalArgumentException("wordnet is null");
+        if (threads < 1 || window < 1)
+            throw new IllegalArgumentException("threads and window must be positive");
+        this.wordnet = wordnet;
+        this.threads = threads;
+        this.window = window;
+        this.pool = Executors.newFixedThreadPool(threads);
+    }
+
+    // answer every pair {nounA, nounB}; returns how many there were
+    public long run(Iterator<String[]> pairs, ResultListener listener) {
+        if (pairs == null || listener == null)
+            throw new IllegalArgumentException("pairs or listener is null");
+        ArrayDeque<Future<Window>> inFlight = new ArrayDeque<>();
+        long count = 0;
+        try {
+            while (pairs.hasNext()) {
+                Window next = read(pairs, count);
+                count += next.n;
+                if (inFlight.size() == threads * WINDOWS_PER_THREAD)
+                    deliver(inFlight.poll().get(), listener);
+                inFlight.add(pool.submit(next));
+            }
+            while (!inFlight.isEmpty())
+                deliver(inFlight.poll().get(), listener);
+            return count;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while streaming queries", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        finally {
+            for (Future<Window> f: inFlight)
+                f.cancel(true);
+        }
+    }
+
+    public long run(Stream<String[]> pairs, ResultListener listener) {
+        if (pairs == null)
+            throw new IllegalArgumentException("pairs is null");
+        return run(pairs.iterator(), listener);
+    }
+
+    public int threads() {
+        return threads;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /* ********** Helper Private Functions ********** */
+
+    private Window read(Iterator<String[]> pairs, long first) {
+        Window w = new Window(first, window);
+        while (w.n < window && pairs.hasNext()) {
+            String[] pair = pairs.next();
+            if (pair == null || pair.length != 2 || pair[0] == null || pair[1] == null)
+                throw new IllegalArgumentException("pair " + (first + w.n) + " is not two nouns");
+            w.nounsA[w.n] = pair[0];
+            w.nounsB[w.n++] = pair[1];
+        }
+        return w;
+    }
+
+    private void deliver(Window w, ResultListener listener) {
+        for (int i = 0; i < w.n; i++)
+            listener.result(w.first + i, w.nounsA[i], w.nounsB[i], SAP.unpackLength(w.results[i]),
+                            wordnet.synset(SAP.unpackAncestor(w.results[i])));
+    }
+
+    // one window of pairs; call() groups them by first noun and fills results
+    private final class Window implements Callable<Window> {
+        final long first;
+        final String[] nounsA;
+        final String[] nounsB;
+        final long[] results;
+        int n;
+
+        Window(long first, int capacity) {
+            this.first = first;
+            nounsA = new String[capacity];
+            nounsB = new String[capacity];
+            results = new long[capacity];
+        }
+
+        @Override
+        public Window call() {
+            // counting sort of the pair positions by group, groups in order of first appearance
+            HashMap<String, Integer> groups = new HashMap<>(2 * n);
+            int[] group = new int[n];
+            int[] groupStart = new int[n + 1];
+            for (int i = 0; i < n; i++) {
+                Integer g = groups.get(nounsA[i]);
+                if (g == null) {
+                    g = groups.size();
+                    groups.put(nounsA[i], g);
+                }
+                group[i] = g;
+                groupStart[g + 1]++;
+            }
+            int groupCount = groups.size();
+            for (int g = 0; g < groupCount; g++)
+                groupStart[g + 1] += groupStart[g];
+            int[] order = new int[n];
+            int[] next = Arrays.copyOf(groupStart, groupCount);
+            for (int i = 0; i < n; i++)
+                order[next[group[i]]++] = i;
+
+            String[] targets = new String[n];
+            for (int k = 0; k < n; k++)
+                targets[k] = nounsB[order[k]];
+            long[] part = new long[n];
+            for (int g = 0; g < groupCount; g++) {
+                int from = groupStart[g];
+                int to = groupStart[g + 1];
+                if (to - from >= SHARED_SEARCH_MIN) {
+                    wordnet.query(nounsA[order[from]], targets, from, to, part);
+                    for (int k = from; k < to; k++)
+                        results[order[k]] = part[k - from];
+                }
+                else
+                    for (int k = from; k < to; k++) {
+                        wordnet.query(nounsA[order[k]], targets, k, k + 1, part);
+                        results[order[k]] = part[0];
+                    }
+            }
+            return this;
+        }
+    }
+
+    // java WordNetStream synsets.txt hypernyms.txt pairs.txt [threads]
+    // pairs.txt has two nouns per line; writes "nounA nounB distance sap" lines to standard output
+    public static void main(String[] args) throws IOException {
+        WordNet wordnet = new WordNet(args[0], args[1]);
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        long start = System.nanoTime();
+        long count;
+        try (WordNetStream stream = new WordNetStream(wordnet, threads);
+             BufferedReader in = Files.newBufferedReader(Paths.get(args[2]), StandardCharsets.UTF_8);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)) {
+            Stream<String[]> pairs = in.lines()
+                                       .map(String::trim)
+                                       .filter(line -> !line.isEmpty())
+                                       .map(line -> line.split("\\s+"));
+            count = stream.run(pairs, (index, nounA, nounB, distance, sap) -> {
+                try {
+                    out.write(nounA + " " + nounB + " " + distance + " " + sap);
+                    out.newLine();
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        double ms = (System.nanoTime() - start) / 1e6;
+        System.err.printf("%,d pairs in %.0f ms (%,.0f pairs/s, %d threads)\n", count, ms, count / ms * 1000, threads);
+    }
+}